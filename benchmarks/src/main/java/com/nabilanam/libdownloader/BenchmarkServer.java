@@ -0,0 +1,116 @@
+package com.nabilanam.libdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process http server serving a random body from memory with range support. Every response waits the
+ * latency before its head, and every connection is paced to the bandwidth, so downloads can be measured
+ * against something closer to a remote server than loopback.
+ *
+ * @author nabil
+ */
+final class BenchmarkServer implements AutoCloseable {
+
+	private static final int CHUNK = 16 * 1024;
+
+	private final HttpServer server;
+	private final byte[] content;
+	private final long latencyMillis;
+	private final long bytesPerSecond;
+
+	/**
+	 * @param length         size of the served file
+	 * @param latencyMillis  delay before every response head, 0 for none
+	 * @param bytesPerSecond bandwidth of every connection, 0 for unlimited
+	 */
+	BenchmarkServer(int length, long latencyMillis, long bytesPerSecond) throws IOException {
+		this.content = new byte[length];
+		this.latencyMillis = latencyMillis;
+		this.bytesPerSecond = bytesPerSecond;
+		new Random(length).nextBytes(content);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	byte[] getContent() {
+		return content;
+	}
+
+	URL url(String name) throws MalformedURLException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long begin = 0;
+		long end = content.length - 1;
+		int status = 200;
+		if (latencyMillis > 0)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		exchange.getResponseHeaders().set("ETag", "\"bench\"");
+		if (!Util.isNull(range) && range.startsWith("bytes=")) {
+			String[] bounds = range.substring(6).split("-", -1);
+			begin = Long.parseLong(bounds[0]);
+			if (!bounds[1].isEmpty())
+				end = Math.min(end, Long.parseLong(bounds[1]));
+			if (begin > end) {
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+				return;
+			}
+			status = 206;
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + begin + "-" + end + "/" + content.length);
+		}
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		long length = end - begin + 1;
+		boolean head = "HEAD".equals(exchange.getRequestMethod());
+		if (head)
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+		exchange.sendResponseHeaders(status, head ? -1 : length);
+		if (!head)
+			write(exchange, (int) begin, (int) length);
+		exchange.close();
+	}
+
+	/**
+	 * Writes in chunks, each one not before the bandwidth allows it.
+	 */
+	private void write(HttpExchange exchange, int begin, int length) {
+		long start = System.nanoTime();
+		try (OutputStream out = exchange.getResponseBody()) {
+			for (int sent = 0; sent < length; ) {
+				int chunk = Math.min(CHUNK, length - sent);
+				out.write(content, begin + sent, chunk);
+				sent += chunk;
+				if (bytesPerSecond > 0) {
+					long due = start + sent * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+					long wait = due - System.nanoTime();
+					if (wait > 0)
+						LockSupport.parkNanos(wait);
+				}
+			}
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+}
@@ -0,0 +1,47 @@
+package com.nabilanam.libdownloader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Shared pieces of the benchmarks.
+ *
+ * @author nabil
+ */
+public final class Benchmarks {
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * Deletes everything inside the directory, the directory itself is kept.
+	 */
+	static void clean(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			paths.map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Reported next to the operations as bytes per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.nabilanam.libdownloader;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole downloads from the in-process server. Besides downloads per second, the bytes counter reports
+ * the download rate. Run with {@code -prof gc} for the allocation rate and {@code -bm sample} for latency
+ * percentiles.
+ *
+ * @author nabil
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+
+	@Param({"8388608"})
+	public int size;
+
+	@Param({"1", "4", "8"})
+	public int threads;
+
+	/**
+	 * parts, preallocated or nonblocking, only applies to more than one thread
+	 */
+	@Param({"parts", "preallocated", "nonblocking"})
+	public String mode;
+
+	@Param({"16384", "65536", "262144"})
+	public int bufferSize;
+
+	@Param({"0"})
+	public long latencyMillis;
+
+	/**
+	 * per connection, 0 for unlimited
+	 */
+	@Param({"0"})
+	public long bandwidth;
+
+	private BenchmarkServer server;
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = new BenchmarkServer(size, latencyMillis, bandwidth);
+		directory = Files.createTempDirectory("libdownloader-bench");
+	}
+
+	@Setup(Level.Invocation)
+	public void clean() throws IOException {
+		Benchmarks.clean(directory);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() throws IOException {
+		server.close();
+		Benchmarks.clean(directory);
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public Download download(Benchmarks.Bytes bytes) throws IOException {
+		Download download = new Download.Builder(server.url("bench.bin"))
+				.directory(directory)
+				.threadCount(threads)
+				.preallocate(!mode.equals("parts"))
+				.nonBlocking(mode.equals("nonblocking"))
+				.bufferSize(bufferSize)
+				.build();
+		download.start();
+		if (!download.isComplete())
+			throw new IllegalStateException("Download did not complete");
+		bytes.bytes += size;
+		return download;
+	}
+}
@@ -0,0 +1,77 @@
+package com.nabilanam.libdownloader;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of progress reporting on a multithreaded download. none has no listener, the others dispatch
+ * progress at the given interval in milliseconds.
+ *
+ * @author nabil
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerBenchmark {
+
+	@Param({"8388608"})
+	public int size;
+
+	@Param({"none", "1", "100"})
+	public String progressInterval;
+
+	private BenchmarkServer server;
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = new BenchmarkServer(size, 0, 0);
+		directory = Files.createTempDirectory("libdownloader-listener");
+	}
+
+	@Setup(Level.Invocation)
+	public void clean() throws IOException {
+		Benchmarks.clean(directory);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() throws IOException {
+		server.close();
+		Benchmarks.clean(directory);
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public Download download(Blackhole blackhole, Benchmarks.Bytes bytes) throws IOException {
+		Download.Builder builder = new Download.Builder(server.url("bench.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true);
+		if (!progressInterval.equals("none")) {
+			builder.progressInterval(Long.parseLong(progressInterval))
+					.listener(new DownloadListener() {
+						@Override
+						public void downloaded(int bytes) {
+							blackhole.consume(bytes);
+						}
+
+						@Override
+						public void progress(Progress progress) {
+							blackhole.consume(progress);
+						}
+					});
+		}
+		Download download = builder.build();
+		download.start();
+		bytes.bytes += size;
+		return download;
+	}
+}
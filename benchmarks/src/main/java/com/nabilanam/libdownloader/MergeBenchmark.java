@@ -0,0 +1,108 @@
+package com.nabilanam.libdownloader;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joining the part files of a download into the target file. stream copies every part through the heap
+ * like the first versions did, transfer moves the first part into place and lets the kernel copy the others
+ * like {@code Download} does now.
+ *
+ * @author nabil
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBenchmark {
+
+	@Param({"67108864"})
+	public int size;
+
+	@Param({"4", "16"})
+	public int parts;
+
+	@Param({"stream", "transfer"})
+	public String strategy;
+
+	private Path directory;
+	private Path target;
+	private List<Path> paths;
+	private byte[] content;
+
+	@Setup(Level.Trial)
+	public void createContent() throws IOException {
+		directory = Files.createTempDirectory("libdownloader-merge");
+		target = directory.resolve("bench.bin");
+		content = new byte[size / parts];
+		new Random(size).nextBytes(content);
+	}
+
+	@Setup(Level.Invocation)
+	public void writeParts() throws IOException {
+		Benchmarks.clean(directory);
+		paths = new ArrayList<>(parts);
+		for (int i = 0; i < parts; i++) {
+			Path part = directory.resolve("bench.bin" + i);
+			Files.write(part, content);
+			paths.add(part);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		Benchmarks.clean(directory);
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public long merge() throws IOException {
+		if (strategy.equals("stream"))
+			stream();
+		else
+			transfer();
+		return Files.size(target);
+	}
+
+	private void stream() throws IOException {
+		try (FileOutputStream out = new FileOutputStream(target.toFile(), false)) {
+			for (Path part : paths) {
+				Files.copy(part, out);
+			}
+		}
+		for (Path part : paths) {
+			Files.delete(part);
+		}
+	}
+
+	private void transfer() throws IOException {
+		Files.move(paths.get(0), target, StandardCopyOption.REPLACE_EXISTING);
+		long begin = content.length;
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+			for (int i = 1; i < paths.size(); i++) {
+				try (FileChannel in = FileChannel.open(paths.get(i), StandardOpenOption.READ)) {
+					long size = in.size();
+					long position = 0;
+					while (position < size) {
+						position += out.transferFrom(in, begin + position, size - position);
+					}
+					begin += size;
+				}
+				Files.delete(paths.get(i));
+			}
+		}
+	}
+}
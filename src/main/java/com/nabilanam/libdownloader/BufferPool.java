@@ -0,0 +1,40 @@
+package com.nabilanam.libdownloader;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Direct buffers shared by the workers of all downloads, pooled by size.
+ *
+ * @author nabil
+ */
+final class BufferPool {
+
+	private static final int MAX_POOLED = 64;
+	private static final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> POOLS = new ConcurrentHashMap<>();
+
+	private BufferPool() {
+	}
+
+	static ByteBuffer acquire(int size) {
+		ByteBuffer buffer = pool(size).poll();
+		if (Util.isNull(buffer))
+			buffer = ByteBuffer.allocateDirect(size);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Buffers beyond the pool limit are left to the garbage collector.
+	 */
+	static void release(ByteBuffer buffer) {
+		pool(buffer.capacity()).offer(buffer);
+	}
+
+	private static BlockingQueue<ByteBuffer> pool(int size) {
+		return POOLS.computeIfAbsent(size, key -> new ArrayBlockingQueue<>(MAX_POOLED));
+	}
+}
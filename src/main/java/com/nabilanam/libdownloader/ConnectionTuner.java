@@ -0,0 +1,58 @@
+package com.nabilanam.libdownloader;
+
+/**
+ * Decides, once per measurement, whether an adaptive download should open another connection.
+ * A connection is added while each addition raises the total rate by at least half of what one
+ * connection brought before. If it does not, the addition is taken back and growth pauses for a while
+ * before it is tried again, as it also does after the server answered 429 or 503.
+ *
+ * @author nabil
+ */
+final class ConnectionTuner {
+
+	static final double MIN_GAIN = 0.5;
+	static final int PAUSE_MEASUREMENTS = 10;
+	static final int OVERLOAD_PAUSE_MEASUREMENTS = 5;
+
+	private final int maxConnections;
+	private double rateBefore;
+	private int connectionsBefore;
+	private boolean probing;
+	private int pause;
+
+	ConnectionTuner(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @param rate        total bytes per second since the previous call
+	 * @param connections connections the download is allowed now
+	 * @param overloaded  true if the server rejected a request with 429 or 503 since the previous call
+	 * @return 1 to add a connection, -1 to remove one, 0 to keep them
+	 */
+	int next(double rate, int connections, boolean overloaded) {
+		if (overloaded) {
+			probing = false;
+			pause = OVERLOAD_PAUSE_MEASUREMENTS;
+			return 0;
+		}
+		if (probing) {
+			probing = false;
+			double expected = connectionsBefore > 0 ? rateBefore / connectionsBefore * MIN_GAIN : 0;
+			if (rate - rateBefore < expected) {
+				pause = PAUSE_MEASUREMENTS;
+				return -1;
+			}
+		}
+		if (pause > 0) {
+			pause--;
+			return 0;
+		}
+		if (connections >= maxConnections)
+			return 0;
+		rateBefore = rate;
+		connectionsBefore = connections;
+		probing = connections > 0;
+		return 1;
+	}
+}
@@ -0,0 +1,293 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Completed downloads kept in a local directory, so the same file is not fetched again over the network
+ * for another target. A file is stored under the checksum it was verified against, otherwise under its url
+ * and validator, and is served by a hard link or a copy. The least recently served files are evicted once
+ * the cache grows beyond its size, recency being kept in the mtime of an empty marker next to each file so
+ * linked targets keep their own. Processes sharing the directory coordinate through a lock file.
+ *
+ * @author nabil
+ */
+public final class ContentCache {
+
+	private static final ConcurrentMap<Path, ReadWriteLock> LOCKS = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final long maxBytes;
+	private final boolean links;
+	private final ReadWriteLock lock;
+
+	/**
+	 * Cache serving copies of its files.
+	 *
+	 * @param directory directory of the cached files.
+	 * @param maxBytes  total size of the cached files, the least recently used are evicted beyond it.
+	 */
+	public ContentCache(Path directory, long maxBytes) {
+		this(directory, maxBytes, false);
+	}
+
+	/**
+	 * With links a target shares its data with the cached file, so nothing is copied but neither may be
+	 * modified in place. A download writing to such a target again gives it a copy of its own first.
+	 * Targets on another file system are copied anyway.
+	 *
+	 * @param directory directory of the cached files.
+	 * @param maxBytes  total size of the cached files, the least recently used are evicted beyond it.
+	 * @param links     true to store and serve files as hard links, false to copy them.
+	 */
+	public ContentCache(Path directory, long maxBytes, boolean links) {
+		this.directory = directory.toAbsolutePath().normalize();
+		this.maxBytes = Math.max(0, maxBytes);
+		this.links = links;
+		this.lock = LOCKS.computeIfAbsent(this.directory, key -> new ReentrantReadWriteLock());
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public boolean isLinks() {
+		return links;
+	}
+
+	/**
+	 * @return total size of the cached files
+	 * @throws IOException if the directory cannot be read
+	 */
+	public long size() throws IOException {
+		long size = 0;
+		for (Path object : objects()) {
+			size += Files.size(object);
+		}
+		return size;
+	}
+
+	/**
+	 * A file verified against a checksum is found by it whatever url it came from. Otherwise the url needs
+	 * a validator, since without one a changed remote file would be served from the cache.
+	 *
+	 * @param url       requested url, before redirects.
+	 * @param validator strong ETag or Last-Modified, null if none.
+	 * @param algorithm checksum algorithm, null if none.
+	 * @param checksum  hex checksum the file was verified against, null if none.
+	 * @return key of the file or null if it cannot be cached
+	 */
+	static String key(URL url, String validator, String algorithm, String checksum) {
+		if (!Util.isStringNullOrEmpty(algorithm) && !Util.isStringNullOrEmpty(checksum))
+			return algorithm.toUpperCase(Locale.ROOT) + ":" + checksum.toLowerCase(Locale.ROOT);
+		if (Util.isStringNullOrEmpty(validator))
+			return null;
+		return url.toExternalForm() + " " + validator;
+	}
+
+	/**
+	 * Replaces the target with the cached file and marks it as recently used.
+	 *
+	 * @return false if the file is not cached
+	 */
+	boolean fetch(String key, Path target) throws IOException {
+		Path object = object(key);
+		if (!Files.exists(object))
+			return false;
+		Util.createDirectory(target.toAbsolutePath().getParent());
+		Lock local = lock.readLock();
+		local.lock();
+		try (FileChannel lockFile = openLockFile()) {
+			// released when the channel is closed
+			lockFile.lock(0, Long.MAX_VALUE, true);
+			if (!Files.exists(object))
+				return false;
+			touch(object);
+			Path tmp = target.resolveSibling(target.getFileName() + ".cache");
+			Files.deleteIfExists(tmp);
+			if (!links || !link(tmp, object))
+				copy(object, tmp);
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} finally {
+			local.unlock();
+		}
+	}
+
+	/**
+	 * Copies the completed source into the cache, or links it, and evicts the least recently used files
+	 * beyond the size. A file larger than the whole cache is not stored.
+	 */
+	void store(String key, Path source) throws IOException {
+		long length = Files.size(source);
+		if (length > maxBytes)
+			return;
+		Path object = object(key);
+		Util.createDirectory(object.getParent());
+		Path tmp = Files.createTempFile(object.getParent(), object.getFileName().toString(), ".tmp");
+		try {
+			Files.delete(tmp);
+			if (!links || !link(tmp, source))
+				copy(source, tmp);
+			Lock local = lock.writeLock();
+			local.lock();
+			try (FileChannel lockFile = openLockFile()) {
+				// released when the channel is closed
+				lockFile.lock();
+				Files.move(tmp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				touch(object);
+				evict(object);
+			} finally {
+				local.unlock();
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the rest fits, never the one just stored.
+	 */
+	private void evict(Path stored) throws IOException {
+		List<Path> objects = objects();
+		long size = 0;
+		for (Path object : objects) {
+			size += Files.size(object);
+		}
+		objects.sort(Comparator.comparing(ContentCache::lastUsed));
+		for (Path object : objects) {
+			if (size <= maxBytes)
+				return;
+			if (object.equals(stored))
+				continue;
+			size -= Files.size(object);
+			Files.deleteIfExists(object);
+			Files.deleteIfExists(marker(object));
+		}
+	}
+
+	/**
+	 * Marks the file as recently used. The mtime of the file itself belongs to the targets linked to it.
+	 */
+	private static void touch(Path object) throws IOException {
+		Path marker = marker(object);
+		if (!Files.exists(marker))
+			Files.createFile(marker);
+		Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+	}
+
+	private static FileTime lastUsed(Path object) {
+		try {
+			return Files.getLastModifiedTime(marker(object));
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static Path marker(Path object) {
+		String name = object.getFileName().toString();
+		return object.resolveSibling(name.substring(0, name.length() - ".bin".length()) + ".used");
+	}
+
+	/**
+	 * Gives a target sharing its data with other links, like a file served or stored by a linking cache,
+	 * data of its own, so writing it in place leaves the cached file alone.
+	 *
+	 * @param shared true to copy a target whose link count the file system does not tell
+	 */
+	static void detach(Path target, boolean shared) throws IOException {
+		if (!Files.isRegularFile(target) || linkCount(target, shared ? 2 : 1) < 2)
+			return;
+		Path tmp = target.resolveSibling(target.getFileName() + ".cache");
+		Files.deleteIfExists(tmp);
+		copy(target, tmp);
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int linkCount(Path path, int unknown) {
+		try {
+			return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			return unknown;
+		}
+	}
+
+	/**
+	 * @return false if the file system does not support hard links between the paths
+	 */
+	private static boolean link(Path link, Path existing) {
+		try {
+			Files.createLink(link, existing);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copied by the kernel where the platform supports it.
+	 */
+	private static void copy(Path source, Path target) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+		     FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	private FileChannel openLockFile() throws IOException {
+		Util.createDirectory(directory);
+		return FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private List<Path> objects() throws IOException {
+		Path objects = directory.resolve("objects");
+		List<Path> list = new ArrayList<>();
+		if (!Files.isDirectory(objects))
+			return list;
+		try (Stream<Path> files = Files.list(objects)) {
+			files.filter(path -> path.getFileName().toString().endsWith(".bin")).forEach(list::add);
+		}
+		return list;
+	}
+
+	/**
+	 * @return file named by the SHA-256 of the key
+	 */
+	private Path object(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			return directory.resolve("objects").resolve(StreamingDigest.toHex(hash) + ".bin");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
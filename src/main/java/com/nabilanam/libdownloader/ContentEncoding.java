@@ -0,0 +1,160 @@
+package com.nabilanam.libdownloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content codings a compressed download accepts and their decoders. Gzip and deflate come with the JDK,
+ * brotli is only offered if the org.brotli decoder is on the class path.
+ *
+ * @author nabil
+ */
+final class ContentEncoding {
+
+	private static final Constructor<?> BROTLI = brotli();
+
+	private ContentEncoding() {
+	}
+
+	/**
+	 * @return value of the Accept-Encoding header
+	 */
+	static String accepted() {
+		return Util.isNull(BROTLI) ? "gzip, deflate" : "gzip, deflate, br";
+	}
+
+	/**
+	 * Codings are listed in the order they were applied, so they are undone from the last one.
+	 *
+	 * @param encoding Content-Encoding of the response, null or identity if it is not encoded
+	 * @return decoded body
+	 * @throws IOException if a coding is not supported
+	 */
+	static InputStream decode(String encoding, InputStream in) throws IOException {
+		if (Util.isStringNullOrEmpty(encoding))
+			return in;
+		String[] codings = encoding.split(",");
+		for (int i = codings.length - 1; i >= 0; i--) {
+			in = decoder(codings[i].trim().toLowerCase(Locale.ROOT), in);
+		}
+		return in;
+	}
+
+	/**
+	 * @return true if the body is not encoded
+	 */
+	static boolean isIdentity(String encoding) {
+		return Util.isStringNullOrEmpty(encoding) || "identity".equalsIgnoreCase(encoding.trim());
+	}
+
+	private static InputStream decoder(String coding, InputStream in) throws IOException {
+		switch (coding) {
+			case "":
+			case "identity":
+				return in;
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(in, 8192);
+			case "deflate":
+				return inflater(in);
+			case "br":
+				// not offered without a decoder
+				if (Util.isNull(BROTLI))
+					throw new IOException("Unsupported Content-Encoding " + coding);
+				try {
+					return (InputStream) BROTLI.newInstance(in);
+				} catch (ReflectiveOperationException e) {
+					throw new IOException("Brotli decoder failed", e);
+				}
+			default:
+				throw new IOException("Unsupported Content-Encoding " + coding);
+		}
+	}
+
+	/**
+	 * Deflate is meant to be zlib wrapped, but some servers send raw deflate data, told apart by the
+	 * zlib header.
+	 */
+	private static InputStream inflater(InputStream in) throws IOException {
+		PushbackInputStream head = new PushbackInputStream(in, 2);
+		int first = head.read();
+		int second = first == -1 ? -1 : head.read();
+		if (second != -1)
+			head.unread(second);
+		if (first != -1)
+			head.unread(first);
+		boolean zlib = second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+		return new InflaterInputStream(head, new Inflater(!zlib), 8192);
+	}
+
+	private static Constructor<?> brotli() {
+		try {
+			return Class.forName("org.brotli.dec.BrotliInputStream").getConstructor(InputStream.class);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the wire under a decoder.
+	 */
+	static final class Counted extends FilterInputStream {
+		private long count;
+		private long taken;
+
+		Counted(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1)
+				count++;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0)
+				count += read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * @return bytes read in all
+		 */
+		long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return bytes read since the previous call
+		 */
+		long take() {
+			long bytes = count - taken;
+			taken = count;
+			return bytes;
+		}
+	}
+}
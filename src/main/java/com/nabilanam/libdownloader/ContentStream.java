@@ -0,0 +1,102 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a download from its first byte while later ranges are still being fetched. A read blocks until
+ * the next bytes in file order are written, see {@link Download#openStream()}.
+ *
+ * @author nabil
+ */
+final class ContentStream extends InputStream {
+
+	private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private final Download download;
+	private FileChannel file;
+	private long position;
+	private boolean closed;
+
+	ContentStream(Download download) {
+		this.download = download;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		long readable = await();
+		if (readable == -1)
+			return -1;
+		ByteBuffer dst = ByteBuffer.wrap(b, off, (int) Math.min(len, readable - position));
+		MemoryChannel memory = download.getMemory();
+		int read = Util.isNull(memory) ? file().read(dst, position) : memory.read(dst, position);
+		if (read > 0)
+			position += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (closed)
+			return 0;
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, download.getReadableLength() - position));
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (!Util.isNull(file))
+			file.close();
+	}
+
+	/**
+	 * Running is read before complete and complete before the length, a download is complete before it
+	 * stops running and has its whole length once it is complete.
+	 *
+	 * @return readable length beyond the position, -1 at the end of the file
+	 */
+	private long await() throws IOException {
+		while (true) {
+			boolean running = download.isRunning();
+			boolean complete = download.isComplete();
+			long readable = download.getReadableLength();
+			if (readable < position)
+				throw new IOException("Download restarted from the first byte");
+			if (readable > position)
+				return readable;
+			if (complete)
+				return -1;
+			if (!running) {
+				IOException failure = download.getFailure();
+				throw Util.isNull(failure) ? new IOException("Download stopped") : new IOException("Download failed", failure);
+			}
+			LockSupport.parkNanos(WAIT_NANOS);
+			if (Thread.interrupted())
+				throw new InterruptedIOException("Interrupted while waiting for the download");
+		}
+	}
+
+	private FileChannel file() throws IOException {
+		if (Util.isNull(file))
+			file = FileChannel.open(download.getFilePath(), StandardOpenOption.READ);
+		return file;
+	}
+}
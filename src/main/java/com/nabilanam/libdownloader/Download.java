@@ -1,23 +1,43 @@
 package com.nabilanam.libdownloader;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author nabil
  */
 public final class Download {
 
+	private static final int SEGMENTS_PER_THREAD = 4;
+	private static final long MIN_SPLIT_SIZE = 64 * 1024;
+	private static final long MERGE_INTERVAL = 200;
+	private static final long TUNE_INTERVAL = 1000;
+	private static final int INITIAL_CONNECTIONS = 2;
+	static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+			"(KHTML, like Gecko) Chrome/51.0.2704.103 Safari/537.36";
+
 	private final int threadCount;
 	private final Path directory;
 	private final Path tmpDirectory;
@@ -26,13 +46,72 @@ public final class Download {
 	private final HttpInfo httpInfo;
 	private final Semaphore interrupt;
 	private final DownloadListener listener;
-	private Thread async;
-	private boolean isComplete;
+	private final boolean preallocate;
+	private final long segmentSize;
+	private final boolean virtualThreads;
+	private final long progressInterval;
+	private final int bufferSize;
+	private final long checkpointBytes;
+	private final long checkpointInterval;
+	private final Transport transport;
+	private final boolean nonBlocking;
+	private final RateLimiter rateLimiter;
+	private final boolean adaptive;
+	private final Mirrors mirrors;
+	private final String checksumAlgorithm;
+	private final String expectedChecksum;
+	private final RetryPolicy retry;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final long stallBytesPerSecond;
+	private final long stallMillis;
+	private final DownloadMetrics metrics;
+	private final int memoryLimit;
+	private final boolean upToDate;
+	private volatile boolean outdated;
+	private final ContentCache contentCache;
+	private final String cacheKey;
+	private final boolean compressed;
+	private final List<Worker> watched = new CopyOnWriteArrayList<>();
+	private final AtomicInteger connectionTarget = new AtomicInteger();
+	private final AtomicInteger retiring = new AtomicInteger();
+	private final AtomicInteger overloads = new AtomicInteger();
+	private volatile Semaphore connections;
+	private StreamingDigest digest;
+	private volatile String checksum;
+	private volatile IOException failure;
+	private final List<RateLimiter> sharedLimiters = new CopyOnWriteArrayList<>();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder transferred = new LongAdder();
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+	private volatile boolean running;
+	private volatile boolean isComplete;
+	private volatile boolean stopping;
+	private volatile boolean cancelled;
+	private volatile boolean changed;
 	private ExecutorService es;
+	private ExecutorService ownExecutor;
 	private List<Path> tmpPaths;
+	private List<Long> partEnds;
+	private volatile int merged;
+	private volatile Journal journal;
+	private volatile SegmentScheduler scheduler;
+	private FileChannel channel;
+	private volatile MemoryChannel memory;
+	private volatile long singleBegin;
+	private ScheduledFuture<?> progressTask;
+	private long reported;
+	private long reportedAt;
 
 	private Download(int threadCount, Path directory, Path tmpDirectory, String fileName, Path filePath,
-	                 HttpInfo httpInfo, Semaphore interrupt, DownloadListener listener) {
+	                 HttpInfo httpInfo, Semaphore interrupt, DownloadListener listener, boolean preallocate,
+	                 long segmentSize, boolean virtualThreads, long progressInterval,
+	                 int bufferSize, long checkpointBytes, long checkpointInterval, Transport transport,
+	                 boolean nonBlocking, RateLimiter rateLimiter, RateLimiter sharedLimiter,
+	                 boolean adaptive, Mirrors mirrors, String checksumAlgorithm, String expectedChecksum,
+	                 RetryPolicy retry, int connectTimeout, int readTimeout, long stallBytesPerSecond,
+	                 long stallMillis, DownloadMetrics metrics, int memoryLimit, boolean upToDate,
+	                 boolean outdated, ContentCache contentCache, String cacheKey, boolean compressed) {
 		this.threadCount = threadCount;
 		this.directory = directory;
 		this.tmpDirectory = tmpDirectory;
@@ -41,6 +120,34 @@ public final class Download {
 		this.httpInfo = httpInfo;
 		this.interrupt = interrupt;
 		this.listener = listener;
+		this.preallocate = preallocate;
+		this.segmentSize = segmentSize;
+		this.virtualThreads = virtualThreads;
+		this.progressInterval = progressInterval;
+		this.bufferSize = bufferSize;
+		this.checkpointBytes = checkpointBytes;
+		this.checkpointInterval = checkpointInterval;
+		this.transport = transport;
+		this.nonBlocking = nonBlocking;
+		this.rateLimiter = rateLimiter;
+		this.adaptive = adaptive;
+		this.mirrors = mirrors;
+		this.checksumAlgorithm = checksumAlgorithm;
+		this.expectedChecksum = expectedChecksum;
+		this.retry = retry;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.stallBytesPerSecond = stallBytesPerSecond;
+		this.stallMillis = stallMillis;
+		this.metrics = metrics;
+		this.memoryLimit = memoryLimit;
+		this.upToDate = upToDate;
+		this.outdated = outdated;
+		this.contentCache = contentCache;
+		this.cacheKey = cacheKey;
+		this.compressed = compressed;
+		if (!Util.isNull(sharedLimiter))
+			this.sharedLimiters.add(sharedLimiter);
 	}
 
 	/**
@@ -54,12 +161,50 @@ public final class Download {
 	 * Start async download.
 	 */
 	public void startAsync() {
-		async = new Thread(runnable());
-		async.start();
+		Thread thread = Threads.newThread(virtualThreads, runnable());
+		// running before it returns, see ContentStream
+		running = true;
+		thread.start();
 	}
 
 	/**
-	 * Stop async download. Wait until it's fully stopped.
+	 * Start async download, driven by a thread of the executor while the workers get threads of their own.
+	 * Cancelling the future stops the download and aborts the requests in flight, like {@link #stop()}
+	 * the progress is kept for a later start.
+	 *
+	 * @param executor runs the download until it completes, fails or stops.
+	 * @return future completed with the result of the run, also when it failed or was stopped
+	 */
+	public CompletableFuture<DownloadResult> startAsync(Executor executor) {
+		CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+		Runnable runnable = runnable();
+		future.whenComplete((result, e) -> {
+			if (future.isCancelled())
+				cancel();
+		});
+		try {
+			executor.execute(() -> {
+				if (future.isDone())
+					return;
+				long startedAt = System.nanoTime();
+				try {
+					runnable.run();
+					future.complete(new DownloadResult(this, received.sum(), transferred.sum(),
+							System.nanoTime() - startedAt));
+				} catch (RuntimeException | Error e) {
+					future.completeExceptionally(e);
+					throw e;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Stop async download. Wait until it's fully stopped. Requests in flight are aborted, on the default
+	 * transport a read that receives nothing at all only returns at the read timeout.
 	 */
 	public void stop() {
 		stopAsync();
@@ -71,11 +216,355 @@ public final class Download {
 	 * Signal async download to stop.
 	 */
 	public void stopAsync() {
-		async.interrupt();
+		cancel();
+	}
+
+	/**
+	 * Stops the run without interrupting its thread, which may be the caller's or belong to a caller's
+	 * executor. Blocked reads are ended by aborting the responses of the workers, the non-blocking engine
+	 * stops them on its next turn. A run that has not started yet stops right away.
+	 */
+	private void cancel() {
+		cancelled = true;
+		stopping = true;
+		abortWorkers();
+	}
+
+	private void abortWorkers() {
+		for (Worker worker : watched) {
+			worker.abort();
+		}
+	}
+
+	/**
+	 * Called by workers for every write, the listener is only notified by the progress dispatcher.
+	 */
+	void downloaded(long bytes) {
+		downloaded(bytes, bytes);
+	}
+
+	/**
+	 * @param bytes     bytes written to the file
+	 * @param wireBytes bytes received for them, fewer than written if the response is compressed
+	 */
+	void downloaded(long bytes, long wireBytes) {
+		received.add(bytes);
+		transferred.add(wireBytes);
+	}
+
+	/**
+	 * Takes tokens from the own limiter and every shared one.
+	 *
+	 * @return nanoseconds to wait before reading on
+	 */
+	long reserve(int bytes) {
+		long delay = rateLimiter.reserve(bytes);
+		for (RateLimiter limiter : sharedLimiters) {
+			delay = Math.max(delay, limiter.reserve(bytes));
+		}
+		return delay;
+	}
+
+	/**
+	 * Applies a limiter shared with other downloads on top of the own one.
+	 */
+	void addRateLimiter(RateLimiter limiter) {
+		if (!sharedLimiters.contains(limiter))
+			sharedLimiters.add(limiter);
+	}
+
+	/**
+	 * Changes the own limit of this download, also while it runs.
+	 *
+	 * @param bytesPerSecond rate, 0 for unlimited
+	 */
+	public void setRateLimit(long bytesPerSecond) {
+		rateLimiter.setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * @return own limit of this download in bytes per second, 0 if unlimited
+	 */
+	public long getRateLimit() {
+		return rateLimiter.getBytesPerSecond();
+	}
+
+	/**
+	 * @return true if the number of connections follows the measured throughput
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return connections an adaptive download currently allows itself, otherwise its thread count
+	 */
+	public int getConnections() {
+		return Util.isNull(connections) ? threadCount : connectionTarget.get();
+	}
+
+	/**
+	 * @return true while workers share a tuned number of connections
+	 */
+	boolean isTuned() {
+		return !Util.isNull(connections);
+	}
+
+	/**
+	 * Blocks a worker of an adaptive download until it may open a connection.
+	 *
+	 * @return false if the download is stopping or nothing is left to download
+	 */
+	boolean acquireConnection(SegmentScheduler segments) {
+		Semaphore permits = connections;
+		if (Util.isNull(permits))
+			return true;
+		try {
+			while (!permits.tryAcquire(MERGE_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if (stopping || segments.isComplete())
+					return false;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	void releaseConnection() {
+		Semaphore permits = connections;
+		if (!Util.isNull(permits))
+			permits.release();
 	}
 
-	synchronized void downloaded(int bytes) {
-		if (!Util.isNull(listener)) listener.downloaded(bytes);
+	/**
+	 * Asked by workers after every buffer. One of them gives up its connection for every removal
+	 * the tuner asked for.
+	 */
+	boolean shouldRetire() {
+		int count;
+		while ((count = retiring.get()) > 0) {
+			if (retiring.compareAndSet(count, count - 1))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The server answered 429 or 503, the worker gives up its connection and growth pauses.
+	 */
+	void overloaded() {
+		overloads.incrementAndGet();
+		connectionTarget.decrementAndGet();
+	}
+
+	private void startProgress() {
+		received.reset();
+		transferred.reset();
+		reported = 0;
+		reportedAt = System.nanoTime();
+		if (!Util.isNull(listener))
+			progressTask = Ticker.schedule(this::dispatchProgress, progressInterval);
+	}
+
+	/**
+	 * Cancels the dispatcher and reports what is left, so the listener sees every byte before start() returns.
+	 */
+	private void stopProgress() {
+		if (!Util.isNull(progressTask)) {
+			progressTask.cancel(false);
+			progressTask = null;
+			dispatchProgress();
+		}
+	}
+
+	private synchronized void dispatchProgress() {
+		long now = System.nanoTime();
+		long total = received.sum();
+		long bytes = total - reported;
+		if (bytes == 0)
+			return;
+		long elapsed = Math.max(now - reportedAt, 1);
+		long bytesPerSecond = bytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		reported = total;
+		reportedAt = now;
+		for (long left = bytes; left > 0; left -= Integer.MAX_VALUE) {
+			listener.downloaded((int) Math.min(left, Integer.MAX_VALUE));
+		}
+		listener.progress(new Progress(total, transferred.sum(), httpInfo.getContentLength(), bytesPerSecond,
+				getRanges(total)));
+	}
+
+	private List<Progress.Range> getRanges(long total) {
+		List<Progress.Range> ranges = new ArrayList<>();
+		SegmentScheduler segments = scheduler;
+		if (!Util.isNull(segments)) {
+			for (Segment segment : segments.getSegments()) {
+				ranges.add(new Progress.Range(segment.getBegin(), segment.getEnd(), segment.getPosition()));
+			}
+		} else if (httpInfo.getContentLength() > 0) {
+			ranges.add(new Progress.Range(0, httpInfo.getContentLength() - 1, singleBegin + total));
+		}
+		return ranges;
+	}
+
+	/**
+	 * Forces the shared channel, if any, and saves the journal. Positions are taken before forcing, so the
+	 * journal never claims bytes of the shared channel that are not on disk. Workers with a file of their own
+	 * force it before calling. Skipped if another worker is already checkpointing.
+	 */
+	void checkpoint() {
+		if (!checkpointLock.tryLock())
+			return;
+		try {
+			Journal target = journal;
+			if (Util.isNull(target) || changed)
+				return;
+			List<Segment> snapshot = journalSegments();
+			FileChannel shared = channel;
+			if (!Util.isNull(shared))
+				shared.force(false);
+			target.write(snapshot);
+		} catch (ClosedChannelException e) {
+			// the download ended while a background checkpoint was queued
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Positions of every segment, or of the whole file for a single worker download.
+	 */
+	private List<Segment> journalSegments() {
+		SegmentScheduler segments = scheduler;
+		if (!Util.isNull(segments))
+			return segments.snapshot();
+		List<Segment> single = new ArrayList<>(1);
+		single.add(new Segment(0, httpInfo.getContentLength() - 1, singleBegin + received.sum()));
+		return single;
+	}
+
+	/**
+	 * The server answered a resumed single worker request with the whole file, which is written from the start.
+	 */
+	void resumeRejected() {
+		// the bytes received so far are overwritten
+		singleBegin = -received.sum();
+		if (!Util.isNull(digest))
+			digest.reset();
+	}
+
+	/**
+	 * The server ignored If-Range for a segment, so the remote file has changed since the download started.
+	 * Every worker is stopped and progress is discarded.
+	 */
+	void remoteChanged() {
+		changed = true;
+		stopping = true;
+	}
+
+	/**
+	 * @return validator sent as If-Range or null if the server sent none
+	 */
+	String getValidator() {
+		return httpInfo.getValidator();
+	}
+
+	boolean isStopping() {
+		return stopping;
+	}
+
+	/**
+	 * A worker gave up after its retries, every other worker stops too so the progress can be saved.
+	 * Only the first error is kept.
+	 */
+	void failed(IOException e) {
+		if (Util.isNull(failure)) {
+			failure = e;
+			metrics.failed(getHost(), e);
+		}
+		stopping = true;
+		abortWorkers();
+	}
+
+	/**
+	 * @return error that stopped the last run of this download, null if it did not fail
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return digest of the current run, null without a checksum
+	 */
+	StreamingDigest getDigest() {
+		return digest;
+	}
+
+	RetryPolicy getRetryPolicy() {
+		return retry;
+	}
+
+	int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	int getReadTimeout() {
+		return readTimeout;
+	}
+
+	long getStallBytesPerSecond() {
+		return stallBytesPerSecond;
+	}
+
+	long getStallMillis() {
+		return stallMillis;
+	}
+
+	DownloadMetrics getMetrics() {
+		return metrics;
+	}
+
+	MemoryChannel getMemory() {
+		return memory;
+	}
+
+	boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Length of the first bytes of the file that are written without a gap. Ranges written at their offset
+	 * count once every range before them is complete, part files once they are merged into the target.
+	 */
+	long getReadableLength() throws IOException {
+		MemoryChannel target = memory;
+		if (isComplete)
+			return Util.isNull(target) ? Files.size(filePath) : target.size();
+		if (isPositionalDownload()) {
+			SegmentScheduler segments = scheduler;
+			if (Util.isNull(segments))
+				return 0;
+			long end = httpInfo.getContentLength();
+			for (Segment segment : segments.getSegments()) {
+				if (!segment.isComplete())
+					end = Math.min(end, segment.getPosition());
+			}
+			return end;
+		}
+		if (isMultiWorkerDownload()) {
+			int count = merged;
+			return count == 0 ? 0 : partEnds.get(count - 1) + 1;
+		}
+		if (!Util.isNull(target))
+			return target.size();
+		return Files.exists(filePath) ? Files.size(filePath) : 0;
+	}
+
+	String getHost() {
+		return httpInfo.getUrl().getHost();
 	}
 
 	/**
@@ -124,6 +613,116 @@ public final class Download {
 		return httpInfo;
 	}
 
+	/**
+	 * @return url and the mirrors found serving the same file, only the url if there are none
+	 */
+	public List<URL> getMirrors() {
+		if (Util.isNull(mirrors))
+			return Collections.singletonList(httpInfo.getUrl());
+		return mirrors.getUrls();
+	}
+
+	/**
+	 * @return algorithm of the checksum computed during the download, null if none is computed
+	 */
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * @return lower case hex checksum of the completed file, null if none is computed or not complete yet
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return lower case hex checksum the file must have, given or announced by the server, null if unknown
+	 */
+	public String getExpectedChecksum() {
+		return expectedChecksum;
+	}
+
+	/**
+	 * @return false if the completed file does not match the expected checksum, true if it does or nothing is expected
+	 */
+	public boolean isChecksumValid() {
+		return Util.isNull(expectedChecksum) || expectedChecksum.equalsIgnoreCase(checksum);
+	}
+
+	/**
+	 * @return true if compressed responses are accepted and decoded
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return true if the file is kept in memory instead of being written to disk
+	 */
+	public boolean isInMemory() {
+		return memoryLimit > 0;
+	}
+
+	/**
+	 * @return read-only view of the file of a completed in-memory download, null if not in memory or not complete
+	 */
+	public ByteBuffer getContent() {
+		MemoryChannel target = memory;
+		if (!isComplete || Util.isNull(target))
+			return null;
+		return target.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads the file in order while the download runs, from disk or memory. A read blocks until the next
+	 * bytes are written, ranges fetched out of order are returned once every range before them is complete.
+	 * Part files are readable once merged, which happens while the download runs. Reads fail once the
+	 * download stops or fails before the end of the file. Open it after the download is started.
+	 * Use {@link java.nio.channels.Channels#newChannel(InputStream)} for a ReadableByteChannel.
+	 *
+	 * @return stream of the file from its first byte
+	 */
+	public InputStream openStream() {
+		return new ContentStream(this);
+	}
+
+	/**
+	 * @return true if ranges are written directly into the preallocated file
+	 */
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
+	/**
+	 * @return true if workers and the async driver run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return size of the buffer each thread reads into before writing
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return true if connections are driven by the shared selector thread
+	 */
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+
+	long getCheckpointBytes() {
+		return checkpointBytes;
+	}
+
+	long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
 	/**
 	 * @return listener
 	 */
@@ -141,36 +740,144 @@ public final class Download {
 	}
 
 	private Runnable runnable() {
+		return runnable(null, threadCount);
+	}
+
+	/**
+	 * @param executor    runs the workers, a private one is created and shut down if null
+	 * @param workerCount number of workers, at most threadCount
+	 */
+	Runnable runnable(ExecutorService executor, int workerCount) {
+		cancelled = false;
 		return () -> {
-			resetExecutor();
+			if (upToDate) {
+				// the server answered the conditional probe with 304, the local file is current
+				isComplete = true;
+				running = false;
+				return;
+			}
+			if (fetchCached()) {
+				running = false;
+				return;
+			}
+			if (Util.isNull(executor))
+				resetExecutor();
+			else
+				es = executor;
+			running = true;
+			long startedAt = System.nanoTime();
+			stopping = cancelled;
+			changed = false;
+			scheduler = null;
+			journal = null;
+			connections = null;
+			checksum = null;
+			failure = null;
+			watched.clear();
+			digest = Util.isNull(checksumAlgorithm) ? null : new StreamingDigest(checksumAlgorithm);
+			int workers = isMultiWorkerDownload() ? Math.max(1, Math.min(workerCount, threadCount)) : 1;
 
 			List<Future<?>> futures = new ArrayList<>();
-			CountDownLatch stopLatch = new CountDownLatch(threadCount);
-			CountDownLatch doneLatch = new CountDownLatch(threadCount);
+			CountDownLatch stopLatch = new CountDownLatch(workers);
+			CountDownLatch doneLatch = new CountDownLatch(workers);
 			interruptAcquire();
+			startProgress();
 
 			try {
-				futures = startDownload(stopLatch, doneLatch);
-				doneLatch.await();
-				interruptRelease();
-			} catch (IOException | InterruptedException e) {
+				futures = startDownload(workers, stopLatch, doneLatch);
+				awaitStop(stopLatch);
+			} catch (IOException e) {
+				failed(e);
 				cancelFutures(futures);
 				countDownAwait(stopLatch);
+			} catch (InterruptedException e) {
+				stopping = true;
+				cancelFutures(futures);
+				countDownAwait(stopLatch);
+			}
+
+			if (doneLatch.getCount() > 0) {
+				if (changed)
+					discardProgress();
+				else
+					saveJournal();
+				closeChannel();
+				stopProgress();
+				if (!Util.isNull(failure) && !Util.isNull(listener))
+					listener.failed(failure);
 				interruptRelease();
-				es.shutdown();
+				shutdownExecutor(executor);
+				running = false;
 				return;
 			}
+			interruptRelease();
 
-			mergeFiles();
-			es.shutdown();
+			if (!isPositionalDownload())
+				mergeFiles();
+			finishChecksum();
+			closeChannel();
+			storeCached();
+			deleteJournal();
+			stopProgress();
+			shutdownExecutor(executor);
+			// complete before not running, see ContentStream
 			isComplete = true;
+			running = false;
+			metrics.completed(getHost(), received.sum(), System.nanoTime() - startedAt);
 		};
 	}
 
+	/**
+	 * A file in the content cache replaces the target, unless an earlier run left a journal to resume.
+	 *
+	 * @return true if the download is complete
+	 */
+	private boolean fetchCached() {
+		if (Util.isNull(cacheKey) || newJournal(httpInfo.getContentLength()).exists())
+			return false;
+		try {
+			if (!contentCache.fetch(cacheKey, filePath))
+				return false;
+			if (!Util.isNull(checksumAlgorithm)) {
+				StreamingDigest cached = new StreamingDigest(checksumAlgorithm);
+				cached.catchUp(filePath, 0, Files.size(filePath));
+				checksum = cached.finish();
+			}
+		} catch (IOException e) {
+			// downloaded instead
+			e.printStackTrace();
+			return false;
+		}
+		isComplete = true;
+		return true;
+	}
+
+	/**
+	 * A file that failed its checksum is not cached.
+	 */
+	private void storeCached() {
+		if (Util.isNull(cacheKey) || !isChecksumValid())
+			return;
+		try {
+			contentCache.store(cacheKey, filePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Only an executor the download created itself is shut down, never one borrowed from a DownloadManager.
+	 */
 	private void resetExecutor() {
-		if (!Util.isNull(es))
-			es.shutdownNow();
-		es = Executors.newCachedThreadPool();
+		if (!Util.isNull(ownExecutor))
+			ownExecutor.shutdownNow();
+		ownExecutor = Threads.newExecutor(virtualThreads);
+		es = ownExecutor;
+	}
+
+	private void shutdownExecutor(ExecutorService executor) {
+		if (Util.isNull(executor))
+			ownExecutor.shutdown();
 	}
 
 	private void interruptAcquire() {
@@ -185,13 +892,24 @@ public final class Download {
 		interrupt.release();
 	}
 
-	private List<Future<?>> startDownload(CountDownLatch stopLatch, CountDownLatch doneLatch) throws IOException {
+	private List<Future<?>> startDownload(int workers, CountDownLatch stopLatch, CountDownLatch doneLatch) throws IOException {
 		List<Future<?>> futures;
 		Objects.requireNonNull(httpInfo);
-		Util.createDirectory(directory);
 		long contentLength = httpInfo.getContentLength();
+		if (outdated) {
+			// an earlier complete download of a remote file that has changed since
+			Files.deleteIfExists(filePath);
+			outdated = false;
+		}
+		if (isInMemory()) {
+			memory = newMemory(contentLength);
+		} else {
+			Util.createDirectory(directory);
+			// written in place below, a target linked to the content cache gets a copy of its own
+			ContentCache.detach(filePath, !Util.isNull(contentCache) && contentCache.isLinks());
+		}
 		if (isMultiWorkerDownload()) {
-			futures = multiWorker(contentLength, stopLatch, doneLatch);
+			futures = multiWorker(contentLength, workers, stopLatch, doneLatch);
 		} else {
 			futures = singleWorker(stopLatch, doneLatch);
 		}
@@ -202,36 +920,244 @@ public final class Download {
 		return threadCount > 1;
 	}
 
-	private List<Future<?>> multiWorker(long contentLength, CountDownLatch stopLatch, CountDownLatch doneLatch) throws IOException {
-		Util.createDirectory(tmpDirectory);
+	private boolean isPositionalDownload() {
+		return (preallocate || isInMemory()) && isMultiWorkerDownload();
+	}
+
+	private List<Future<?>> multiWorker(long contentLength, int workers, CountDownLatch stopLatch, CountDownLatch doneLatch) throws IOException {
 		List<Future<?>> futures = new ArrayList<>();
+		if (isInMemory()) {
+			scheduler = new SegmentScheduler(createSegments(contentLength), Math.max(MIN_SPLIT_SIZE, bufferSize));
+			channel = memory;
+		} else if (preallocate) {
+			Util.createDirectory(tmpDirectory);
+			List<Segment> segments = positionalSegments(contentLength);
+			if (segments.isEmpty()) {
+				for (int i = 0; i < workers; i++) {
+					evilCountDown(stopLatch, doneLatch);
+				}
+				return futures;
+			}
+			scheduler = new SegmentScheduler(segments, Math.max(MIN_SPLIT_SIZE, bufferSize));
+			channel = preallocateChannel(contentLength);
+		} else {
+			Util.createDirectory(tmpDirectory);
+			scheduler = new SegmentScheduler(partSegments(contentLength), 0);
+			journal.write(scheduler.snapshot());
+		}
+		URL url = httpInfo.getUrl();
+		if (nonBlocking && NioWorker.isSupported(url)) {
+			InetSocketAddress address = new InetSocketAddress(url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+			for (int i = 0; i < workers; i++) {
+				NioEngine.submit(new NioWorker(this, url, address, scheduler, channel, stopLatch, doneLatch));
+			}
+			return futures;
+		}
+		if (adaptive && workers > 1) {
+			int initial = Math.min(INITIAL_CONNECTIONS, workers);
+			connectionTarget.set(initial);
+			retiring.set(0);
+			overloads.set(0);
+			connections = new Semaphore(initial);
+		}
+		for (int i = 0; i < workers; i++) {
+			Worker worker = new Worker
+					.Builder(httpInfo.getUrl(), filePath)
+					.userAgent(httpInfo.getUserAgent())
+					.stopLatch(stopLatch)
+					.doneLatch(doneLatch)
+					.download(this)
+					.channel(channel)
+					.scheduler(scheduler)
+					.ifRange(getValidator())
+					.bufferSize(bufferSize)
+					.checkpoint(checkpointBytes, checkpointInterval)
+					.transport(transport)
+					.mirrors(mirrors)
+					.digest(digest)
+					.retry(retry)
+					.stallDetection(stallBytesPerSecond, stallMillis)
+					.build();
+			watch(worker);
+			Future<?> future = es.submit(worker);
+			futures.add(future);
+		}
+		return futures;
+	}
+
+	/**
+	 * One segment per thread, each appended to its own part file. Only unfinished ones are returned.
+	 * Leading parts whose file is gone were already merged into the target, which is cut back to them.
+	 * A part is cut back to the position in the journal if it is longer, and removed if the journal
+	 * belongs to another version of the remote file.
+	 */
+	private List<Segment> partSegments(long contentLength) throws IOException {
+		journal = newJournal(contentLength);
+		List<Segment> saved = journal.read();
+		boolean stale = journal.exists() && saved.isEmpty();
+		Map<Long, Long> positions = new HashMap<>();
+		for (Segment segment : saved) {
+			positions.put(segment.getBegin(), segment.getPosition());
+		}
+		List<Segment> segments = new ArrayList<>(threadCount);
 		tmpPaths = new ArrayList<>(threadCount);
+		partEnds = new ArrayList<>(threadCount);
+		merged = 0;
+		long mergedLength = Files.exists(filePath) ? Files.size(filePath) : 0;
+		boolean leading = journal.exists() && !stale;
 		long size = contentLength / threadCount;
 		long end = -1;
 		long begin;
 		for (int i = 0; i < threadCount; i++) {
 			Path path = Paths.get(tmpDirectory.toAbsolutePath().toString(), fileName + i);
 			tmpPaths.add(path);
-			File file = path.toFile();
-			begin = getBegin(file, end);
+			if (stale)
+				Files.deleteIfExists(path);
+			long previousEnd = end;
+			begin = getBegin(path.toFile(), end);
 			end = getEnd(i, contentLength, size, end);
-			if (isMultiWorkerFileAlreadyDownloaded(begin, end)) {
-				evilCountDown(stopLatch, doneLatch);
+			long lastByte = Math.min(end, contentLength - 1);
+			partEnds.add(lastByte);
+			if (leading && !Files.exists(path) && mergedLength > lastByte) {
+				merged++;
 				continue;
 			}
-			Worker worker = new Worker
-					.Builder(httpInfo.getUrl(), path)
-					.begin(begin)
-					.end(end)
-					.userAgent(httpInfo.getUserAgent())
-					.stopLatch(stopLatch)
-					.doneLatch(doneLatch)
-					.download(this)
-					.build();
-			Future<?> future = es.submit(worker);
-			futures.add(future);
+			leading = false;
+			Long position = positions.get(previousEnd + 1);
+			if (!Util.isNull(position) && position < begin) {
+				truncate(path, position - previousEnd - 1);
+				begin = position;
+			}
+			if (isMultiWorkerFileAlreadyDownloaded(begin, lastByte))
+				continue;
+			segments.add(new Segment(previousEnd + 1, lastByte, begin, path));
+		}
+		if (merged > 0)
+			truncate(filePath, partEnds.get(merged - 1) + 1);
+		return segments;
+	}
+
+	private Journal newJournal(long contentLength) {
+		Path path = Paths.get(tmpDirectory.toAbsolutePath().toString(), fileName + ".journal");
+		return new Journal(path, contentLength, httpInfo.getETag(), httpInfo.getLastModified());
+	}
+
+	private void truncate(Path path, long length) throws IOException {
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			file.truncate(length);
+		}
+	}
+
+	/**
+	 * Segments saved in the journal, or new ones if there is no journal or it belongs to another version
+	 * of the remote file.
+	 *
+	 * @return empty list if the file is already downloaded
+	 */
+	private List<Segment> positionalSegments(long contentLength) throws IOException {
+		journal = newJournal(contentLength);
+		List<Segment> segments = journal.read();
+		if (segments.isEmpty()) {
+			if (!journal.exists() && isPositionalFileAlreadyDownloaded(filePath.toFile(), contentLength))
+				return segments;
+			segments = createSegments(contentLength);
+			journal.write(segments);
+		}
+		return segments;
+	}
+
+	/**
+	 * Splits the file into more segments than threads so that idle workers can pick up the next one.
+	 */
+	List<Segment> createSegments(long contentLength) {
+		long size = getSegmentSize(contentLength);
+		List<Segment> list = new ArrayList<>();
+		for (long begin = 0; begin < contentLength; begin += size) {
+			list.add(new Segment(begin, Math.min(begin + size, contentLength) - 1));
+		}
+		return list;
+	}
+
+	long getSegmentSize(long contentLength) {
+		if (segmentSize > 0)
+			return segmentSize;
+		return Math.max(contentLength / ((long) threadCount * SEGMENTS_PER_THREAD), MIN_SPLIT_SIZE);
+	}
+
+	/**
+	 * Without a journal, a file of exact content length can only be a completed download.
+	 */
+	boolean isPositionalFileAlreadyDownloaded(File file, long contentLength) {
+		return Util.isNonDirectoryFile(file) && file.length() == contentLength;
+	}
+
+	/**
+	 * A new run starts from the first byte, nothing of a stopped in-memory download is kept.
+	 * A known length was checked against the limit by the builder.
+	 */
+	private MemoryChannel newMemory(long contentLength) {
+		return new MemoryChannel(contentLength >= 0 ? (int) contentLength : Math.min(memoryLimit, bufferSize), memoryLimit);
+	}
+
+	private FileChannel preallocateChannel(long contentLength) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filePath.toFile(), "rw");
+		if (file.length() != contentLength)
+			file.setLength(contentLength);
+		return file.getChannel();
+	}
+
+	/**
+	 * An in-memory channel stays open for {@link #getContent()} and streams.
+	 */
+	private void closeChannel() {
+		if (!Util.isNull(channel)) {
+			try {
+				if (channel != memory)
+					channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+		}
+	}
+
+	private void saveJournal() {
+		if (!Util.isNull(journal)) {
+			try {
+				journal.write(journalSegments());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Removes everything written for a remote file that has changed meanwhile.
+	 */
+	private void discardProgress() {
+		closeChannel();
+		deleteJournal();
+		try {
+			if (isPositionalDownload() && !isInMemory())
+				Files.deleteIfExists(filePath);
+			if (!Util.isNull(tmpPaths)) {
+				for (Path tmpPath : tmpPaths) {
+					Files.deleteIfExists(tmpPath);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void deleteJournal() {
+		if (!Util.isNull(journal)) {
+			try {
+				journal.delete();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
-		return futures;
 	}
 
 	long getBegin(File file, long end) {
@@ -251,18 +1177,37 @@ public final class Download {
 		doneLatch.countDown();
 	}
 
-	private List<Future<?>> singleWorker(CountDownLatch stopLatch, CountDownLatch doneLatch) {
+	private List<Future<?>> singleWorker(CountDownLatch stopLatch, CountDownLatch doneLatch) throws IOException {
+		if (isInMemory())
+			return memoryWorker(stopLatch, doneLatch);
 		List<Future<?>> futures = new ArrayList<>();
 		File file = filePath.toFile();
 		long begin = getBegin(file);
 		long contentLength = httpInfo.getContentLength();
+		boolean append = true;
+		if (contentLength == -1)
+			append = false;
+		if (contentLength > 0) {
+			Util.createDirectory(tmpDirectory);
+			journal = newJournal(contentLength);
+			List<Segment> saved = journal.read();
+			if (journal.exists() && saved.isEmpty()) {
+				begin = 0;
+				append = false;
+			} else if (!saved.isEmpty() && saved.get(0).getPosition() < begin) {
+				begin = saved.get(0).getPosition();
+				truncate(filePath, begin);
+			}
+		}
+		singleBegin = begin;
 		if (isSingleWorkerFileAlreadyDownloaded(begin, contentLength)) {
 			evilCountDown(stopLatch, doneLatch);
 			return futures;
 		}
-		boolean append = true;
-		if (contentLength == -1)
-			append = false;
+		if (!Util.isNull(journal))
+			journal.write(journalSegments());
+		if (!Util.isNull(digest) && append)
+			digest.catchUp(filePath, 0, begin);
 		Worker worker = new Worker
 				.Builder(httpInfo.getUrl(), filePath)
 				.begin(begin)
@@ -271,12 +1216,50 @@ public final class Download {
 				.doneLatch(doneLatch)
 				.download(this)
 				.append(append)
+				.ifRange(getValidator())
+				.bufferSize(bufferSize)
+				.checkpoint(checkpointBytes, checkpointInterval)
+				.transport(transport)
+				.digest(digest)
+				.retry(retry)
+				.stallDetection(stallBytesPerSecond, stallMillis)
+				.compressed(compressed)
+				.length(httpInfo.getContentLength())
 				.build();
+		watch(worker);
 		Future<?> future = es.submit(worker);
 		futures.add(future);
 		return futures;
 	}
 
+	/**
+	 * Single connection into memory, always from the first byte and without a journal.
+	 */
+	private List<Future<?>> memoryWorker(CountDownLatch stopLatch, CountDownLatch doneLatch) {
+		singleBegin = 0;
+		channel = memory;
+		Worker worker = new Worker
+				.Builder(httpInfo.getUrl(), filePath)
+				.userAgent(httpInfo.getUserAgent())
+				.stopLatch(stopLatch)
+				.doneLatch(doneLatch)
+				.download(this)
+				.append(false)
+				.channel(channel)
+				.bufferSize(bufferSize)
+				.transport(transport)
+				.digest(digest)
+				.retry(retry)
+				.stallDetection(stallBytesPerSecond, stallMillis)
+				.compressed(compressed)
+				.length(httpInfo.getContentLength())
+				.build();
+		watch(worker);
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(es.submit(worker));
+		return futures;
+	}
+
 	long getBegin(File file) {
 		return Util.isNonDirectoryFile(file) ? file.length() : 0;
 	}
@@ -285,10 +1268,15 @@ public final class Download {
 		return contentLength != -1 && begin > contentLength;
 	}
 
+	/**
+	 * Workers see the stopping flag, those blocked in a read are aborted. Interrupting one inside a channel
+	 * operation would close the channel.
+	 */
 	private void cancelFutures(List<Future<?>> futures) {
 		for (Future<?> future : futures) {
-			future.cancel(true);
+			future.cancel(false);
 		}
+		abortWorkers();
 	}
 
 	private void countDownAwait(CountDownLatch latch) {
@@ -302,21 +1290,156 @@ public final class Download {
 	private void mergeFiles() {
 		if (!Util.isCollectionNullOrEmpty(tmpPaths)) {
 			try {
-				try (FileOutputStream fos = new FileOutputStream(filePath.toFile(), false)) {
-					for (Path tmpPath : tmpPaths) {
-						if (tmpPath.toFile().exists())
-							Files.copy(tmpPath, fos);
-					}
-				}
-				for (Path tmpPath : tmpPaths) {
-					Files.delete(tmpPath);
-				}
+				mergeParts(true);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Workers are watched for stalls and to be aborted on cancel.
+	 */
+	private void watch(Worker worker) {
+		watched.add(worker);
+	}
+
+	/**
+	 * Waits for the workers. Meanwhile parts are merged as soon as every part before them is complete,
+	 * so only the last ones are left when the download finishes, adaptive downloads are tuned, the
+	 * checksum follows the completed prefix of the file and stalled requests are aborted.
+	 */
+	private void awaitStop(CountDownLatch stopLatch) throws InterruptedException {
+		boolean merging = isMultiWorkerDownload() && !isPositionalDownload();
+		boolean digesting = isMultiWorkerDownload() && !Util.isNull(digest);
+		if (!merging && !digesting && Util.isNull(connections) && stallBytesPerSecond <= 0) {
+			stopLatch.await();
+			return;
+		}
+		ConnectionTuner tuner = new ConnectionTuner((int) stopLatch.getCount());
+		long tuneAt = System.nanoTime();
+		long tuneBytes = received.sum();
+		while (!stopLatch.await(MERGE_INTERVAL, TimeUnit.MILLISECONDS)) {
+			long now = System.nanoTime();
+			for (Worker worker : watched) {
+				worker.checkStall(now);
+			}
+			if (!Util.isNull(connections) && now - tuneAt >= TimeUnit.MILLISECONDS.toNanos(TUNE_INTERVAL)) {
+				long bytes = received.sum();
+				tune(tuner, (bytes - tuneBytes) * 1e9 / (now - tuneAt));
+				tuneAt = now;
+				tuneBytes = bytes;
+			}
+			try {
+				if (merging)
+					mergeParts(false);
+				if (digesting)
+					digestCompleted();
 			} catch (IOException e) {
+				// left for the final merge and checksum
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * Digests the bytes before the first incomplete one that no worker fed in order. Those of a preallocated
+	 * download are read from the shared channel, those of a part file download from the merged target and
+	 * the first unmerged part.
+	 */
+	private void digestCompleted() throws IOException {
+		SegmentScheduler segments = scheduler;
+		if (Util.isNull(segments))
+			return;
+		if (!Util.isNull(channel)) {
+			long end = httpInfo.getContentLength();
+			for (Segment segment : segments.getSegments()) {
+				if (!segment.isComplete())
+					end = Math.min(end, segment.getPosition());
+			}
+			digest.catchUp(channel, end);
+			return;
+		}
+		if (Util.isNull(tmpPaths))
+			return;
+		if (merged > 0)
+			digest.catchUp(filePath, 0, partEnds.get(merged - 1) + 1);
+		if (merged < tmpPaths.size()) {
+			Path part = tmpPaths.get(merged);
+			long begin = merged == 0 ? 0 : partEnds.get(merged - 1) + 1;
+			if (digest.getPosition() >= begin && Files.exists(part))
+				digest.catchUp(part, begin, begin + Files.size(part));
+		}
+	}
+
+	/**
+	 * Digests whatever the driver has not caught up with yet, for a single connection what was left
+	 * of the file before the download.
+	 */
+	private void finishChecksum() {
+		if (Util.isNull(digest))
+			return;
+		try {
+			if (!Util.isNull(channel))
+				digest.catchUp(channel, channel.size());
+			else
+				digest.catchUp(filePath, 0, Files.exists(filePath) ? Files.size(filePath) : 0);
+			checksum = digest.finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * A removed connection is taken from the idle permits if there is one, otherwise a busy worker retires.
+	 */
+	private void tune(ConnectionTuner tuner, double rate) {
+		int change = tuner.next(rate, connectionTarget.get(), overloads.getAndSet(0) > 0);
+		if (change > 0) {
+			connectionTarget.incrementAndGet();
+			connections.release();
+		} else if (change < 0 && connectionTarget.get() > 1) {
+			connectionTarget.decrementAndGet();
+			if (!connections.tryAcquire())
+				retiring.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The first part is moved into place, the others are copied by the kernel to the end of the target
+	 * and deleted. A part is copied to its own offset, so a failed merge can simply be repeated.
+	 *
+	 * @param all merge every part, otherwise stop at the first incomplete one
+	 */
+	private void mergeParts(boolean all) throws IOException {
+		long start = System.nanoTime();
+		int before = merged;
+		while (merged < tmpPaths.size()) {
+			Path part = tmpPaths.get(merged);
+			long begin = merged == 0 ? 0 : partEnds.get(merged - 1) + 1;
+			long length = partEnds.get(merged) - begin + 1;
+			if (!all && (!Files.exists(part) || Files.size(part) != length))
+				break;
+			if (merged == 0) {
+				Files.move(part, filePath, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ);
+				     FileChannel out = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+					out.truncate(begin);
+					long size = in.size();
+					long position = 0;
+					while (position < size) {
+						position += out.transferFrom(in, begin + position, size - position);
+					}
+				}
+				Files.delete(part);
+			}
+			merged++;
+		}
+		if (merged > before)
+			metrics.merged(getHost(), System.nanoTime() - start);
+	}
+
 
 	public static class Builder {
 		private URL url;
@@ -328,6 +1451,34 @@ public final class Download {
 		private String userAgent;
 		private HttpInfo httpInfo;
 		private DownloadListener listener;
+		private boolean preallocate;
+		private long segmentSize;
+		private boolean virtualThreads;
+		private long progressInterval = 100;
+		private int bufferSize = 64 * 1024;
+		private long checkpointBytes = 64L * 1024 * 1024;
+		private long checkpointInterval = 10_000;
+		private Transport transport;
+		private boolean nonBlocking;
+		private long rateLimit;
+		private RateLimiter rateLimiter;
+		private boolean adaptive;
+		private final List<URL> mirrors = new ArrayList<>();
+		private String checksumAlgorithm;
+		private String expectedChecksum;
+		private int retries = 5;
+		private long initialRetryDelay = 500;
+		private long maxRetryDelay = 30_000;
+		private int connectTimeout = 30_000;
+		private int readTimeout = 60_000;
+		private long stallBytesPerSecond;
+		private long stallMillis;
+		private DownloadMetrics metrics = DownloadMetrics.NONE;
+		private int memoryLimit;
+		private HttpInfoCache cache;
+		private boolean refreshIfChanged;
+		private ContentCache contentCache;
+		private boolean compression;
 
 		/**
 		 * Use this class to build download object.
@@ -397,7 +1548,340 @@ public final class Download {
 		}
 
 		/**
-		 * Subscribed DownloadListener will get continuous update on how many bytes are being downloaded.
+		 * Useful when threadCount > 1.
+		 * The file is preallocated to its content length and every thread writes its range at its own offset,
+		 * so no temporary part files are created or merged. Progress is kept in a journal in tmpDirectory.
+		 *
+		 * @param preallocate true to write ranges directly into the file.
+		 * @return Builder
+		 */
+		public Builder preallocate(boolean preallocate) {
+			this.preallocate = preallocate;
+			return this;
+		}
+
+		/**
+		 * Useful when preallocate is true.
+		 * Size of the segments handed out to threads. An idle thread takes the next segment, or half of
+		 * the largest segment still being downloaded when none is left.
+		 * Default is a quarter of each thread's share, but not less than 64 KiB.
+		 *
+		 * @param segmentSize Segment size in bytes.
+		 * @return Builder
+		 */
+		public Builder segmentSize(long segmentSize) {
+			if (segmentSize > 0)
+				this.segmentSize = segmentSize;
+			return this;
+		}
+
+		/**
+		 * Run the threads of this download on virtual threads, so that many slow connections stay cheap.
+		 * Needs Java 21 or later, ignored on older runtimes.
+		 *
+		 * @param virtualThreads true to use virtual threads.
+		 * @return Builder
+		 */
+		public Builder virtualThreads(boolean virtualThreads) {
+			this.virtualThreads = virtualThreads;
+			return this;
+		}
+
+		/**
+		 * How often the listener is notified. Workers only count bytes, the listener is called from
+		 * one dispatcher thread with everything downloaded since the previous call.
+		 * Default value is 100 milliseconds.
+		 *
+		 * @param millis Interval between listener calls.
+		 * @return Builder
+		 */
+		public Builder progressInterval(long millis) {
+			if (millis > 0)
+				this.progressInterval = millis;
+			return this;
+		}
+
+		/**
+		 * Each thread reads into a buffer of this size and writes it to disk with a single call.
+		 * Larger buffers mean fewer system calls on fast links. Default value is 64 KiB.
+		 *
+		 * @param bufferSize Buffer size in bytes, at least 4 KiB.
+		 * @return Builder
+		 */
+		public Builder bufferSize(int bufferSize) {
+			if (bufferSize >= 4096)
+				this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Written data is forced to disk, and the journal of a preallocated download saved, whenever a thread
+		 * has written this many bytes or the interval has passed since its last checkpoint.
+		 * Default values are 64 MiB and 10 seconds.
+		 *
+		 * @param bytes  Bytes written between checkpoints.
+		 * @param millis Milliseconds between checkpoints.
+		 * @return Builder
+		 */
+		public Builder checkpoint(long bytes, long millis) {
+			if (bytes > 0)
+				this.checkpointBytes = bytes;
+			if (millis > 0)
+				this.checkpointInterval = millis;
+			return this;
+		}
+
+		/**
+		 * Sends the probe and range requests. Default is {@link Transport#urlConnection()}, use
+		 * {@link Transport#httpClient()} to fetch all ranges over one HTTP/2 connection.
+		 * One transport may be shared by many downloads.
+		 *
+		 * @param transport Transport for requests.
+		 * @return Builder
+		 */
+		public Builder transport(Transport transport) {
+			this.transport = transport;
+			return this;
+		}
+
+		/**
+		 * Fetch the segments of a multithreaded plain http download on non-blocking sockets, all driven by
+		 * one selector thread shared with other downloads, instead of a thread per connection.
+		 * Suits many slow downloads. Https and single connection downloads keep using threads.
+		 *
+		 * @param nonBlocking true to use the selector thread.
+		 * @return Builder
+		 */
+		public Builder nonBlocking(boolean nonBlocking) {
+			this.nonBlocking = nonBlocking;
+			return this;
+		}
+
+		/**
+		 * Limits this download to the given rate, which can be changed later with
+		 * {@link Download#setRateLimit(long)}. Default is unlimited.
+		 *
+		 * @param bytesPerSecond Rate of this download, 0 for unlimited.
+		 * @return Builder
+		 */
+		public Builder rateLimit(long bytesPerSecond) {
+			if (bytesPerSecond >= 0)
+				this.rateLimit = bytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * Shares a limiter with other downloads, so that all of them together stay below its rate.
+		 * Applies on top of {@link #rateLimit(long)}.
+		 *
+		 * @param rateLimiter RateLimiter shared by downloads.
+		 * @return Builder
+		 */
+		public Builder rateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/**
+		 * Start with two connections and add more while every new one raises the total throughput,
+		 * up to the thread count. Backs off when throughput plateaus or the server answers 429 or 503.
+		 * Applies to multithreaded downloads on threads, not to {@link #nonBlocking(boolean)} ones.
+		 *
+		 * @param adaptive true to tune the number of connections.
+		 * @return Builder
+		 */
+		public Builder adaptive(boolean adaptive) {
+			this.adaptive = adaptive;
+			return this;
+		}
+
+		/**
+		 * Other servers holding the same file. Each is probed when the download is built and only used if it
+		 * accepts ranges and reports the same length and ETag, or Last-Modified, as the url.
+		 * Ranges go to the url and the mirrors in proportion to their measured throughput, ranges of a failing
+		 * mirror are fetched from the others. Applies to multithreaded downloads on threads.
+		 *
+		 * @param mirrors Urls of the same file.
+		 * @return Builder
+		 */
+		public Builder mirrors(URL... mirrors) {
+			for (URL mirror : mirrors) {
+				if (!Util.isNull(mirror))
+					this.mirrors.add(mirror);
+			}
+			return this;
+		}
+
+		/**
+		 * Computes a checksum while the file is downloaded, see {@link Download#getChecksum()}.
+		 * It is checked against the Digest or, for MD5, Content-MD5 header if the server sends one.
+		 *
+		 * @param algorithm MessageDigest algorithm like SHA-256 or MD5, CRC32 or CRC32C.
+		 * @return Builder
+		 */
+		public Builder checksum(String algorithm) {
+			return checksum(algorithm, null);
+		}
+
+		/**
+		 * Computes a checksum while the file is downloaded and checks it against the expected one,
+		 * see {@link Download#isChecksumValid()}.
+		 *
+		 * @param algorithm MessageDigest algorithm like SHA-256 or MD5, CRC32 or CRC32C.
+		 * @param expected  Hex checksum the file must have.
+		 * @return Builder
+		 */
+		public Builder checksum(String algorithm, String expected) {
+			this.checksumAlgorithm = algorithm;
+			this.expectedChecksum = expected;
+			return this;
+		}
+
+		/**
+		 * A failed request is reissued from the last written byte after a delay that doubles with every
+		 * attempt, half of it random, up to the maximum. The attempts are counted again once a retry makes
+		 * progress. Connection errors, server errors, 408 and 429 are retried. When the retries are used up
+		 * the download stops and {@link DownloadListener#failed(IOException)} is called.
+		 * Default values are 5 retries from 500 milliseconds up to 30 seconds.
+		 *
+		 * @param retries       Retries of a request, 0 to fail on the first error.
+		 * @param initialMillis Delay before the first retry.
+		 * @param maxMillis     Longest delay between retries.
+		 * @return Builder
+		 */
+		public Builder retry(int retries, long initialMillis, long maxMillis) {
+			if (retries >= 0)
+				this.retries = retries;
+			if (initialMillis >= 0)
+				this.initialRetryDelay = initialMillis;
+			if (maxMillis >= 0)
+				this.maxRetryDelay = maxMillis;
+			return this;
+		}
+
+		/**
+		 * Timeouts of the default transports and of {@link #nonBlocking(boolean)} connections. A request that
+		 * times out is retried. A transport passed to {@link #transport(Transport)} keeps its own timeouts.
+		 * Default values are 30 seconds to connect and 60 seconds between reads.
+		 *
+		 * @param connectMillis Longest wait for a connection, 0 for none.
+		 * @param readMillis    Longest wait for the next bytes of a response, 0 for none.
+		 * @return Builder
+		 */
+		public Builder timeouts(int connectMillis, int readMillis) {
+			if (connectMillis >= 0)
+				this.connectTimeout = connectMillis;
+			if (readMillis >= 0)
+				this.readTimeout = readMillis;
+			return this;
+		}
+
+		/**
+		 * Aborts a request that received less than the minimum rate during the whole window, its remaining
+		 * range is requested again on a fresh connection. Catches connections that still trickle bytes, so
+		 * the read timeout never fires. Time spent waiting for a rate limit does not count.
+		 * Disabled by default.
+		 *
+		 * @param minBytesPerSecond Slowest rate that is not a stall, 0 to disable.
+		 * @param windowMillis      Time a request may stay below the rate.
+		 * @return Builder
+		 */
+		public Builder stallDetection(long minBytesPerSecond, long windowMillis) {
+			if (minBytesPerSecond >= 0 && windowMillis > 0) {
+				this.stallBytesPerSecond = minBytesPerSecond;
+				this.stallMillis = windowMillis;
+			}
+			return this;
+		}
+
+		/**
+		 * Keeps the file in memory instead of writing it, and its part files or journal, to disk. Read it with
+		 * {@link Download#getContent()} once complete or with {@link Download#openStream()} meanwhile.
+		 * A file known to be larger than the limit is rejected by {@link #build()}, one of unknown length
+		 * fails the download once it exceeds the limit. A stopped download starts over from the first byte.
+		 *
+		 * @param maxBytes Largest file kept in memory, 0 to write to disk.
+		 * @return Builder
+		 */
+		public Builder inMemory(int maxBytes) {
+			if (maxBytes >= 0)
+				this.memoryLimit = maxBytes;
+			return this;
+		}
+
+		/**
+		 * Takes the metadata of the url from the cache instead of probing the server, and caches the probe
+		 * of an unknown url. An entry older than the maximum age of the cache is revalidated with a
+		 * conditional probe. One cache may be shared by many downloads.
+		 *
+		 * @param cache Metadata cache, null to always probe.
+		 * @return Builder
+		 */
+		public Builder cache(HttpInfoCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Revalidates the cached metadata with If-None-Match and If-Modified-Since on every build. If the
+		 * server answers 304 Not Modified, or the same validators and length, and the file was downloaded
+		 * completely before, the download is complete right away without another request. A file whose
+		 * validators or length changed is downloaded again from the first byte.
+		 * Needs {@link #cache(HttpInfoCache)} and is ignored for in-memory downloads. Disabled by default.
+		 *
+		 * @param refreshIfChanged true to revalidate on every build.
+		 * @return Builder
+		 */
+		public Builder refreshIfChanged(boolean refreshIfChanged) {
+			this.refreshIfChanged = refreshIfChanged;
+			return this;
+		}
+
+		/**
+		 * Serves the file from the content cache if it holds the same version, otherwise stores it there once
+		 * complete. A version is the checksum the file is verified against, else the url and its ETag or
+		 * Last-Modified. Files without either are not cached, nor are in-memory downloads.
+		 *
+		 * @param contentCache Cache of completed files, null for none.
+		 * @return Builder
+		 */
+		public Builder contentCache(ContentCache contentCache) {
+			this.contentCache = contentCache;
+			return this;
+		}
+
+		/**
+		 * Accepts gzip and deflate, and brotli if org.brotli:dec is on the class path, and decodes the
+		 * response while writing it, so compressible files like logs, CSV or JSON take less bandwidth.
+		 * Byte ranges count the decoded file while an encoded body can only be read from its start, so the
+		 * download runs on one connection whatever the thread count, and mirrors and non-blocking mode are
+		 * ignored. A resumed download requests the rest without compression. The probe is never compressed,
+		 * content length and progress count decoded bytes, {@link Progress#getWireBytes()} those received.
+		 * Disabled by default.
+		 *
+		 * @param compression true to accept compressed responses.
+		 * @return Builder
+		 */
+		public Builder compression(boolean compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		/**
+		 * Reports probe, connect and first byte latencies, per connection throughput, retries, failures and
+		 * merge time of this download. Use {@link JmxMetrics} to publish them as MBeans, one instance may be
+		 * shared by many downloads. Default reports nothing.
+		 *
+		 * @param metrics DownloadMetrics implementor.
+		 * @return Builder
+		 */
+		public Builder metrics(DownloadMetrics metrics) {
+			this.metrics = Util.isNull(metrics) ? DownloadMetrics.NONE : metrics;
+			return this;
+		}
+
+		/**
+		 * Subscribed DownloadListener will get periodic updates on how many bytes are being downloaded.
 		 *
 		 * @param listener DownloadListener implementor.
 		 * @return Builder
@@ -411,28 +1895,74 @@ public final class Download {
 		 * The download object.
 		 *
 		 * @return Download
-		 * @throws IOException if network is unavailable
+		 * @throws IOException if network is unavailable or the file is larger than the in-memory limit
 		 */
 		public Download build() throws IOException {
 			if (Util.isNull(url))
 				return null;
 			initializeDefaults();
+			if (memoryLimit > 0 && httpInfo.getContentLength() > memoryLimit)
+				throw new MemoryChannel.LimitExceededException("Content length " + httpInfo.getContentLength()
+						+ " exceeds the in-memory limit of " + memoryLimit + " bytes");
+			if (!Util.isNull(checksumAlgorithm)) {
+				checksumAlgorithm = new StreamingDigest(checksumAlgorithm).getAlgorithm();
+				if (Util.isStringNullOrEmpty(expectedChecksum))
+					expectedChecksum = StreamingDigest.fromHeaders(checksumAlgorithm,
+							httpInfo.getDigest(), httpInfo.getContentMd5());
+			}
 			Semaphore interrupt = new Semaphore(1);
+			boolean refreshed = refreshIfChanged && memoryLimit == 0 && httpInfo.isConditional();
+			boolean upToDate = refreshed && httpInfo.isProbed() && !httpInfo.isChanged() && isCompleted()
+					&& Files.size(filePath) == httpInfo.getContentLength();
+			boolean outdated = refreshed && httpInfo.isChanged() && isCompleted();
+			String cacheKey = memoryLimit > 0 || Util.isNull(contentCache) ? null
+					: ContentCache.key(url, httpInfo.getValidator(), checksumAlgorithm, expectedChecksum);
 			return new Download(threadCount,
 					directory, tmpDirectory,
 					fileName, filePath,
-					httpInfo, interrupt, listener);
+					httpInfo, interrupt, listener, preallocate,
+					segmentSize, virtualThreads && Threads.isVirtualSupported(), progressInterval,
+					bufferSize, checkpointBytes, checkpointInterval, transport, nonBlocking,
+					new RateLimiter(rateLimit), rateLimiter, adaptive, probeMirrors(),
+					checksumAlgorithm, expectedChecksum,
+					new RetryPolicy(retries, initialRetryDelay, maxRetryDelay),
+					connectTimeout, readTimeout, stallBytesPerSecond, stallMillis, metrics, memoryLimit,
+					upToDate, outdated, contentCache, cacheKey, compression);
+		}
+
+		/**
+		 * A target file without a journal is a download that completed before.
+		 */
+		private boolean isCompleted() {
+			return Files.isRegularFile(filePath)
+					&& !Files.exists(Paths.get(tmpDirectory.toAbsolutePath().toString(), fileName + ".journal"));
+		}
+
+		/**
+		 * @return url and the mirrors serving the same file, null if none does
+		 */
+		private Mirrors probeMirrors() {
+			if (mirrors.isEmpty() || threadCount < 2)
+				return null;
+			List<URL> same = new ArrayList<>();
+			same.add(httpInfo.getUrl());
+			for (URL mirror : mirrors) {
+				if (httpInfo.isSameFile(new HttpInfo(transport, mirror, userAgent, metrics)))
+					same.add(mirror);
+			}
+			return same.size() > 1 ? new Mirrors(same) : null;
 		}
 
 		private void initializeDefaults() throws IOException {
 			if (Util.isStringNullOrEmpty(userAgent))
-				userAgent = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
-						"(KHTML, like Gecko) Chrome/51.0.2704.103 Safari/537.36";
-			if (Util.isNull(httpInfo)) {
-				HttpURLConnection con = (HttpURLConnection) url.openConnection();
-				httpInfo = new HttpInfo(con, userAgent);
-			}
-			if (threadCount < 1 || !isMultiThreadDownload(httpInfo.getContentLength())) {
+				userAgent = DEFAULT_USER_AGENT;
+			if (Util.isNull(transport))
+				transport = Transport.urlConnection(connectTimeout, readTimeout);
+			if (Util.isNull(httpInfo) && !Util.isNull(cache))
+				httpInfo = cache.probe(transport, url, userAgent, metrics, refreshIfChanged);
+			if (Util.isNull(httpInfo))
+				httpInfo = new HttpInfo(transport, url, userAgent, metrics);
+			if (threadCount < 1 || compression || !isMultiThreadDownload(httpInfo.getContentLength())) {
 				threadCount = 1;
 			}
 			if (Util.isNull(directory))
@@ -0,0 +1,424 @@
+package com.nabilanam.libdownloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Downloads many small files, each with a single GET and no probe before it. Requests to a host run on at
+ * most a few connections, which the transport keeps alive from one file to the next, so a file costs one
+ * round trip instead of a new connection, a probe and a request. Entries are read lazily and results are
+ * handed back as files complete.
+ *
+ * @author nabil
+ */
+public final class DownloadBatch implements Closeable {
+
+	private static final int READ_AHEAD_PER_CONNECTION = 64;
+
+	private final int maxConnections;
+	private final int maxConnectionsPerHost;
+	private final String userAgent;
+	private final Transport transport;
+	private final RetryPolicy retry;
+	private final int bufferSize;
+	private final DownloadMetrics metrics;
+	private final ExecutorService workers;
+	private final Map<Future<Result>, Map.Entry<URL, Path>> running;
+	private volatile boolean stopping;
+
+	private DownloadBatch(int maxConnections, int maxConnectionsPerHost, String userAgent, Transport transport,
+	                      RetryPolicy retry, int bufferSize, DownloadMetrics metrics, boolean virtualThreads) {
+		this.maxConnections = maxConnections;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.userAgent = userAgent;
+		this.transport = transport;
+		this.retry = retry;
+		this.bufferSize = bufferSize;
+		this.metrics = metrics;
+		this.workers = Threads.newExecutor(virtualThreads);
+		this.running = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @see #download(Iterator, Consumer)
+	 */
+	public void download(Iterable<? extends Map.Entry<URL, Path>> entries, Consumer<Result> results) throws InterruptedException {
+		download(entries.iterator(), results);
+	}
+
+	/**
+	 * @see #download(Iterator, Consumer)
+	 */
+	public void download(Stream<? extends Map.Entry<URL, Path>> entries, Consumer<Result> results) throws InterruptedException {
+		download(entries.iterator(), results);
+	}
+
+	/**
+	 * Downloads every url to its path, blocking until all are done or the batch is stopped. Existing files
+	 * are overwritten, missing directories created and a file that fails is deleted. Only as many entries
+	 * are read ahead as the connections can take soon, so the entries may come from a lazy source.
+	 *
+	 * @param entries url and target path of each file.
+	 * @param results called on the calling thread with each result in order of completion, entries not
+	 *                started before a stop get no result.
+	 * @throws IllegalStateException if the batch is already running
+	 * @throws InterruptedException if the calling thread is interrupted, running requests are aborted
+	 */
+	public void download(Iterator<? extends Map.Entry<URL, Path>> entries, Consumer<Result> results) throws InterruptedException {
+		if (!running.isEmpty())
+			throw new IllegalStateException("DownloadBatch is already running");
+		CompletionService<Result> completion = new ExecutorCompletionService<>(workers);
+		Map<String, Integer> hostConnections = new HashMap<>();
+		Map<String, Deque<Map.Entry<URL, Path>>> waiting = new HashMap<>();
+		int readAhead = maxConnections * READ_AHEAD_PER_CONNECTION;
+		int waitingCount = 0;
+		try {
+			while (true) {
+				while (!stopping && running.size() < maxConnections && waitingCount < readAhead && entries.hasNext()) {
+					Map.Entry<URL, Path> entry = entries.next();
+					String host = entry.getKey().getHost();
+					if (hostConnections.getOrDefault(host, 0) < maxConnectionsPerHost) {
+						hostConnections.merge(host, 1, Integer::sum);
+						submit(completion, entry);
+					} else {
+						waiting.computeIfAbsent(host, key -> new ArrayDeque<>()).add(entry);
+						waitingCount++;
+					}
+				}
+				// a host with waiting entries always has a running one, which hands its connection on
+				if (running.isEmpty())
+					return;
+				Future<Result> future = completion.take();
+				Result result = getResult(future, running.remove(future));
+				String host = result.getUrl().getHost();
+				Deque<Map.Entry<URL, Path>> next = waiting.get(host);
+				if (!Util.isNull(next) && !stopping) {
+					submit(completion, next.poll());
+					waitingCount--;
+					if (next.isEmpty())
+						waiting.remove(host);
+				} else {
+					hostConnections.computeIfPresent(host, (key, count) -> count > 1 ? count - 1 : null);
+				}
+				results.accept(result);
+			}
+		} finally {
+			for (Future<Result> future : running.keySet()) {
+				future.cancel(true);
+			}
+			running.clear();
+		}
+	}
+
+	private void submit(CompletionService<Result> completion, Map.Entry<URL, Path> entry) {
+		URL url = entry.getKey();
+		Path path = entry.getValue();
+		running.put(completion.submit(() -> fetch(url, path)), entry);
+	}
+
+	/**
+	 * @return result of the task, a stopped one if it was cancelled
+	 */
+	private static Result getResult(Future<Result> future, Map.Entry<URL, Path> entry) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (CancellationException e) {
+			return new Result(entry.getKey(), entry.getValue(), 0, 0, false, null);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * A plain single stream worker without a download, which retries from the last written byte.
+	 */
+	private Result fetch(URL url, Path path) {
+		long start = System.nanoTime();
+		CountDownLatch done = new CountDownLatch(1);
+		Worker worker = new Worker.Builder(url, path)
+				.userAgent(userAgent)
+				.doneLatch(done)
+				.append(false)
+				.bufferSize(bufferSize)
+				.transport(transport)
+				.retry(retry)
+				.metrics(metrics)
+				.build();
+		IOException failure = null;
+		try {
+			Util.createDirectory(path.toAbsolutePath().getParent());
+			worker.run();
+			failure = worker.getFailure();
+		} catch (IOException e) {
+			failure = e;
+		}
+		boolean complete = Util.isNull(failure) && done.getCount() == 0;
+		long nanos = System.nanoTime() - start;
+		if (complete) {
+			metrics.completed(url.getHost(), worker.getOffset(), nanos);
+		} else {
+			if (!Util.isNull(failure))
+				metrics.failed(url.getHost(), failure);
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException ignored) {
+				// the failure of the download is the one reported
+			}
+		}
+		return new Result(url, path, complete ? worker.getOffset() : 0, nanos, complete, failure);
+	}
+
+	/**
+	 * Entries not started yet are left out and running requests are aborted, the current
+	 * {@link #download(Iterator, Consumer)} then returns. A stopped batch downloads nothing anymore.
+	 */
+	public void stop() {
+		stopping = true;
+		for (Future<Result> future : running.keySet()) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Stops the batch and releases its threads.
+	 */
+	@Override
+	public void close() {
+		stop();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * @return maximum number of files downloaded at once
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return maximum number of files downloaded at once from a single host
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Outcome of one entry of a batch.
+	 */
+	public static final class Result {
+		private final URL url;
+		private final Path path;
+		private final long bytes;
+		private final long nanos;
+		private final boolean complete;
+		private final IOException failure;
+
+		private Result(URL url, Path path, long bytes, long nanos, boolean complete, IOException failure) {
+			this.url = url;
+			this.path = path;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.complete = complete;
+			this.failure = failure;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * @return size of the downloaded file, 0 unless complete
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return nanoseconds from the first request to the end of the file, retries included
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * @return error the file failed with after its retries, null if complete or stopped
+		 */
+		public IOException getFailure() {
+			return failure;
+		}
+	}
+
+	public static class Builder {
+		private int maxConnections = 16;
+		private int maxConnectionsPerHost = 4;
+		private String userAgent;
+		private Transport transport;
+		private int retries = 5;
+		private long initialRetryDelay = 500;
+		private long maxRetryDelay = 30_000;
+		private int connectTimeout = 30_000;
+		private int readTimeout = 60_000;
+		private int bufferSize = 16 * 1024;
+		private DownloadMetrics metrics = DownloadMetrics.NONE;
+		private boolean virtualThreads;
+
+		/**
+		 * Maximum number of files downloaded at once. Default value is 16.
+		 *
+		 * @param maxConnections Global connection limit.
+		 * @return Builder
+		 */
+		public Builder maxConnections(int maxConnections) {
+			if (maxConnections > 0)
+				this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/**
+		 * Maximum number of files downloaded at once from a single host. The default transport keeps 5 idle
+		 * connections per host alive, more are closed after every file. Default value is 4.
+		 *
+		 * @param maxConnectionsPerHost Per host connection limit.
+		 * @return Builder
+		 */
+		public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+			if (maxConnectionsPerHost > 0)
+				this.maxConnectionsPerHost = maxConnectionsPerHost;
+			return this;
+		}
+
+		/**
+		 * @param userAgent User-agent browser string.
+		 * @return Builder
+		 */
+		public Builder userAgent(String userAgent) {
+			this.userAgent = userAgent;
+			return this;
+		}
+
+		/**
+		 * Transport of all requests of the batch. {@link Transport#httpClient()} sends the files of a
+		 * HTTP/2 host over one connection. Default opens a HttpURLConnection per request, reusing
+		 * connections through the JDK keep-alive cache.
+		 *
+		 * @param transport Transport for requests.
+		 * @return Builder
+		 */
+		public Builder transport(Transport transport) {
+			this.transport = transport;
+			return this;
+		}
+
+		/**
+		 * Retries of each file, see {@link Download.Builder#retry(int, long, long)}.
+		 * Default values are 5 retries from 500 milliseconds up to 30 seconds.
+		 *
+		 * @param retries       Retries of a request, 0 to fail on the first error.
+		 * @param initialMillis Delay before the first retry.
+		 * @param maxMillis     Longest delay between retries.
+		 * @return Builder
+		 */
+		public Builder retry(int retries, long initialMillis, long maxMillis) {
+			if (retries >= 0)
+				this.retries = retries;
+			if (initialMillis >= 0)
+				this.initialRetryDelay = initialMillis;
+			if (maxMillis >= 0)
+				this.maxRetryDelay = maxMillis;
+			return this;
+		}
+
+		/**
+		 * Timeouts of the default transport. Default values are 30 seconds to connect and 60 seconds
+		 * between reads.
+		 *
+		 * @param connectMillis Longest wait for a connection, 0 for none.
+		 * @param readMillis    Longest wait for the next bytes of a response, 0 for none.
+		 * @return Builder
+		 */
+		public Builder timeouts(int connectMillis, int readMillis) {
+			if (connectMillis >= 0)
+				this.connectTimeout = connectMillis;
+			if (readMillis >= 0)
+				this.readTimeout = readMillis;
+			return this;
+		}
+
+		/**
+		 * Size of the buffer each file is read into. Default value is 16 KiB, smaller than for single
+		 * downloads since most files of a batch are small.
+		 *
+		 * @param bufferSize Buffer size in bytes.
+		 * @return Builder
+		 */
+		public Builder bufferSize(int bufferSize) {
+			if (bufferSize > 0)
+				this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Receives the request latencies of every file, and a completion or failure per file.
+		 *
+		 * @param metrics Metrics sink.
+		 * @return Builder
+		 */
+		public Builder metrics(DownloadMetrics metrics) {
+			if (!Util.isNull(metrics))
+				this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Runs each file on a virtual thread on Java 21 and later. Ignored on older runtimes.
+		 *
+		 * @param virtualThreads true to use virtual threads.
+		 * @return Builder
+		 */
+		public Builder virtualThreads(boolean virtualThreads) {
+			this.virtualThreads = virtualThreads;
+			return this;
+		}
+
+		/**
+		 * The download batch.
+		 *
+		 * @return DownloadBatch
+		 */
+		public DownloadBatch build() {
+			if (Util.isStringNullOrEmpty(userAgent))
+				userAgent = Download.DEFAULT_USER_AGENT;
+			if (Util.isNull(transport))
+				transport = Transport.urlConnection(connectTimeout, readTimeout);
+			return new DownloadBatch(maxConnections, Math.min(maxConnectionsPerHost, maxConnections), userAgent,
+					transport, new RetryPolicy(retries, initialRetryDelay, maxRetryDelay), bufferSize, metrics,
+					virtualThreads && Threads.isVirtualSupported());
+		}
+	}
+}
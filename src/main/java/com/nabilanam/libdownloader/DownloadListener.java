@@ -1,9 +1,34 @@
 package com.nabilanam.libdownloader;
 
+import java.io.IOException;
+
 /**
+ * Called from a single dispatcher thread, sampled every progress interval of the download.
+ * {@link #failed(IOException)} is called by the thread running the download once it has stopped.
+ *
  * @author nabil
  */
 public interface DownloadListener {
 
+	/**
+	 * @param bytes bytes downloaded since the previous call
+	 */
 	public void downloaded(int bytes);
+
+	/**
+	 * Called right after {@link #downloaded(int)} with totals, per range progress and rate.
+	 *
+	 * @param progress snapshot of the download
+	 */
+	public default void progress(Progress progress) {
+	}
+
+	/**
+	 * A request failed for good, after its retries if it was retried. The download has stopped and
+	 * can be resumed later.
+	 *
+	 * @param e error of the last attempt
+	 */
+	public default void failed(IOException e) {
+	}
 }
@@ -0,0 +1,285 @@
+package com.nabilanam.libdownloader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many downloads on one bounded pool of connections.
+ * Queued downloads are started by priority as connections become free, each getting a fair share of them
+ * without exceeding the global and per-host limits.
+ *
+ * @author nabil
+ */
+public final class DownloadManager {
+
+	private final int maxConnections;
+	private final int maxConnectionsPerHost;
+	private final ExecutorService workers;
+	private final ExecutorService drivers;
+	private final PriorityQueue<Entry> queue;
+	private final Map<String, Integer> hostConnections;
+	private final RateLimiter rateLimiter;
+	private int connections;
+	private int active;
+	private long sequence;
+	private boolean shutdown;
+
+	private DownloadManager(int maxConnections, int maxConnectionsPerHost, long rateLimit) {
+		this.maxConnections = maxConnections;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.workers = newPool(maxConnections);
+		this.drivers = newPool(maxConnections);
+		this.queue = new PriorityQueue<>();
+		this.hostConnections = new HashMap<>();
+		this.rateLimiter = new RateLimiter(rateLimit);
+	}
+
+	private static ExecutorService newPool(int size) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Queue download with normal priority.
+	 *
+	 * @param download download to run.
+	 * @return Future which is done when the download completes or stops, cancelling it stops the download
+	 */
+	public Future<?> submit(Download download) {
+		return submit(download, 0);
+	}
+
+	/**
+	 * Queue download. Downloads with higher priority are started first, equal ones in submission order.
+	 *
+	 * @param download download to run.
+	 * @param priority higher runs first.
+	 * @return Future which is done when the download completes or stops, cancelling it stops the download
+	 */
+	public synchronized Future<?> submit(Download download, int priority) {
+		if (shutdown)
+			throw new IllegalStateException("DownloadManager is shut down");
+		download.addRateLimiter(rateLimiter);
+		Entry entry = new Entry(download, priority, sequence++);
+		queue.add(entry);
+		dispatch();
+		return entry.task;
+	}
+
+	/**
+	 * Queued downloads are not started anymore, running ones are left to complete.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		for (Entry entry : queue) {
+			entry.task.cancel(false);
+		}
+		queue.clear();
+		drivers.shutdown();
+		workers.shutdown();
+	}
+
+	/**
+	 * @return maximum number of connections of all downloads
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return maximum number of connections to a single host
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Changes the rate all downloads of this manager share, also while they run.
+	 *
+	 * @param bytesPerSecond rate, 0 for unlimited
+	 */
+	public void setRateLimit(long bytesPerSecond) {
+		rateLimiter.setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * @return rate all downloads share in bytes per second, 0 if unlimited
+	 */
+	public long getRateLimit() {
+		return rateLimiter.getBytesPerSecond();
+	}
+
+	/**
+	 * @return number of connections currently granted to running downloads
+	 */
+	public synchronized int getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @return number of downloads waiting for a connection
+	 */
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+
+	private void dispatch() {
+		if (shutdown)
+			return;
+		PriorityQueue<Entry> ordered = new PriorityQueue<>(queue);
+		while (!ordered.isEmpty() && connections < maxConnections) {
+			Entry entry = ordered.poll();
+			if (entry.task.isDone()) {
+				queue.remove(entry);
+				continue;
+			}
+			int granted = grant(entry);
+			if (granted < 1)
+				continue;
+			queue.remove(entry);
+			entry.download.getMetrics().queued(entry.host, System.nanoTime() - entry.queuedAt);
+			entry.connections = granted;
+			connections += granted;
+			hostConnections.merge(entry.host, granted, Integer::sum);
+			active++;
+			drivers.execute(() -> {
+				try {
+					entry.task.run();
+				} finally {
+					release(entry);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Never more than the download asks for, the free connections, the host's free connections
+	 * or an equal share among running and waiting downloads. The host is that of the download's url,
+	 * mirrors are not accounted for.
+	 */
+	int grant(Entry entry) {
+		int hostFree = maxConnectionsPerHost - hostConnections.getOrDefault(entry.host, 0);
+		int free = maxConnections - connections;
+		int share = Math.max(1, maxConnections / (active + queue.size()));
+		return Math.min(Math.min(entry.download.getThreadCount(), share), Math.min(free, hostFree));
+	}
+
+	/**
+	 * Called when the download finishes and again after its task returns, which is the only call
+	 * when the task was cancelled before it could run.
+	 */
+	private synchronized void release(Entry entry) {
+		if (entry.released)
+			return;
+		entry.released = true;
+		connections -= entry.connections;
+		active--;
+		hostConnections.computeIfPresent(entry.host, (host, count) -> count - entry.connections > 0 ? count - entry.connections : null);
+		dispatch();
+	}
+
+	private final class Entry implements Comparable<Entry> {
+		private final Download download;
+		private final int priority;
+		private final long sequence;
+		private final String host;
+		private final FutureTask<Void> task;
+		private final long queuedAt = System.nanoTime();
+		private int connections;
+		private boolean released;
+
+		private Entry(Download download, int priority, long sequence) {
+			this.download = download;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.host = download.getHttpInfo().getUrl().getHost();
+			this.task = new FutureTask<Void>(() -> {
+				try {
+					download.runnable(workers, connections).run();
+				} finally {
+					release(this);
+				}
+			}, null) {
+				/**
+				 * A running download is stopped like {@link Download#stopAsync()}, its driver thread is never
+				 * interrupted.
+				 */
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					boolean cancelled = super.cancel(false);
+					if (cancelled)
+						download.stopAsync();
+					return cancelled;
+				}
+			};
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (priority != other.priority)
+				return Integer.compare(other.priority, priority);
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	public static class Builder {
+		private int maxConnections = 16;
+		private int maxConnectionsPerHost = 4;
+		private long rateLimit;
+
+		/**
+		 * Maximum number of connections of all downloads together. Default value is 16.
+		 *
+		 * @param maxConnections Global connection limit.
+		 * @return Builder
+		 */
+		public Builder maxConnections(int maxConnections) {
+			if (maxConnections > 0)
+				this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/**
+		 * Maximum number of connections to a single host. Default value is 4. A download is counted against
+		 * the host of its url only, the connections of a download with mirrors are spread over the mirror
+		 * hosts by throughput, so a mirror host may get more connections than this in all.
+		 *
+		 * @param maxConnectionsPerHost Per host connection limit.
+		 * @return Builder
+		 */
+		public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+			if (maxConnectionsPerHost > 0)
+				this.maxConnectionsPerHost = maxConnectionsPerHost;
+			return this;
+		}
+
+		/**
+		 * Rate all downloads of the manager share. Default is unlimited.
+		 *
+		 * @param bytesPerSecond Global rate, 0 for unlimited.
+		 * @return Builder
+		 */
+		public Builder rateLimit(long bytesPerSecond) {
+			if (bytesPerSecond >= 0)
+				this.rateLimit = bytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * The download manager.
+		 *
+		 * @return DownloadManager
+		 */
+		public DownloadManager build() {
+			return new DownloadManager(maxConnections, Math.min(maxConnectionsPerHost, maxConnections), rateLimit);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+
+/**
+ * Receives measurements of downloads, keyed by the host a request went to. Called from the worker threads,
+ * the selector thread and the thread running a download, so implementations must be thread safe and return
+ * quickly. Nothing is reported per buffer, only per request and per download.
+ * Every method does nothing by default, {@link JmxMetrics} publishes them as MBeans.
+ *
+ * @author nabil
+ */
+public interface DownloadMetrics {
+
+	DownloadMetrics NONE = new DownloadMetrics() {
+	};
+
+	/**
+	 * @param nanos time taken to probe the remote file before the download was built
+	 */
+	default void probed(String host, long nanos) {
+	}
+
+	/**
+	 * @param nanos time taken to get a connection, close to zero when a kept alive one is reused
+	 */
+	default void connected(String host, long nanos) {
+	}
+
+	/**
+	 * @param nanos time from sending a request until the head of its response arrived
+	 */
+	default void firstByte(String host, long nanos) {
+	}
+
+	/**
+	 * A request for a range or the whole file was sent.
+	 */
+	default void requestStarted(String host) {
+	}
+
+	/**
+	 * A request ended, completed or not. Bytes over time is the throughput of its connection.
+	 *
+	 * @param bytes bytes of the response body written to disk
+	 * @param nanos time since the request was sent
+	 */
+	default void requestEnded(String host, long bytes, long nanos) {
+	}
+
+	/**
+	 * A failed request is about to be retried.
+	 */
+	default void retried(String host, IOException e) {
+	}
+
+	/**
+	 * A download failed, after the retries of its requests.
+	 */
+	default void failed(String host, IOException e) {
+	}
+
+	/**
+	 * @param nanos time taken to merge part files into the target
+	 */
+	default void merged(String host, long nanos) {
+	}
+
+	/**
+	 * @param nanos time a download waited in a {@link DownloadManager} queue for connections
+	 */
+	default void queued(String host, long nanos) {
+	}
+
+	/**
+	 * @param bytes bytes downloaded by the run, without what was already on disk
+	 * @param nanos time the run took
+	 */
+	default void completed(String host, long bytes, long nanos) {
+	}
+}
@@ -0,0 +1,109 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Outcome of one run of a download, see {@link Download#startAsync(java.util.concurrent.Executor)}.
+ *
+ * @author nabil
+ */
+public final class DownloadResult {
+
+	private final Path filePath;
+	private final boolean complete;
+	private final long bytes;
+	private final long wireBytes;
+	private final long contentLength;
+	private final Duration duration;
+	private final String eTag;
+	private final String lastModified;
+	private final String checksum;
+	private final IOException failure;
+
+	DownloadResult(Download download, long bytes, long wireBytes, long nanos) {
+		HttpInfo httpInfo = download.getHttpInfo();
+		this.filePath = download.isInMemory() ? null : download.getFilePath();
+		this.complete = download.isComplete();
+		this.bytes = bytes;
+		this.wireBytes = wireBytes;
+		this.contentLength = httpInfo.getContentLength();
+		this.duration = Duration.ofNanos(nanos);
+		this.eTag = httpInfo.getETag();
+		this.lastModified = httpInfo.getLastModified();
+		this.checksum = download.getChecksum();
+		this.failure = download.getFailure();
+	}
+
+	/**
+	 * @return downloaded file, null for an in-memory download
+	 */
+	public Path getFilePath() {
+		return filePath;
+	}
+
+	/**
+	 * @return true if the download completed, false if it failed or was stopped
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return bytes received during the run, without those of earlier runs it resumed from
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return bytes received over the network during the run, fewer than {@link #getBytes()} if the
+	 * responses were compressed
+	 */
+	public long getWireBytes() {
+		return wireBytes;
+	}
+
+	/**
+	 * @return length of the remote file or -1 if unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * @return time from the start of the run until it completed, failed or stopped
+	 */
+	public Duration getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return ETag of the remote file, null if it has none
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return Last-Modified of the remote file, null if it has none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return checksum computed while downloading, null if none was asked for or the run did not complete
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return error that stopped the run, null if it completed or was stopped
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+}
@@ -2,15 +2,21 @@ package com.nabilanam.libdownloader;
 
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * @author nabil
  */
 public class HttpInfo implements Serializable {
 
+	private static final long serialVersionUID = 1L;
+
 	private String userAgent;
 	private String name;
 	private String eTag;
@@ -18,40 +24,254 @@ public class HttpInfo implements Serializable {
 	private String contentType;
 	private long contentLength;
 	private String lastModified;
-	private HttpURLConnection con;
+	private String digest;
+	private String contentMd5;
+	private URL url;
+	private transient HttpInfo previous;
+	private transient boolean conditional;
+	private transient boolean probed;
+	private transient boolean notModified;
+	private transient boolean changed;
+
+	/**
+	 * Probes with HEAD and falls back to a one byte ranged GET if the server rejects HEAD or leaves out
+	 * the length or range support. Neither response is aborted once it is consumed, so the first worker
+	 * reuses the warmed connection instead of opening a new one.
+	 */
+	HttpInfo(Transport transport, URL url, String userAgent) {
+		this(transport, url, userAgent, DownloadMetrics.NONE);
+	}
+
+	/**
+	 * Reports how long the probe took, or that it failed.
+	 */
+	HttpInfo(Transport transport, URL url, String userAgent, DownloadMetrics metrics) {
+		this(transport, url, userAgent, metrics, null);
+	}
 
+	/**
+	 * Probes with If-None-Match and If-Modified-Since of a previous probe. If the server answers 304 Not
+	 * Modified, everything is taken over from the previous probe.
+	 *
+	 * @param previous earlier probe of the url, null for an unconditional probe
+	 */
+	HttpInfo(Transport transport, URL url, String userAgent, DownloadMetrics metrics, HttpInfo previous) {
+		this.url = url;
+		this.previous = previous;
+		this.conditional = !Util.isNull(previous)
+				&& !(Util.isStringNullOrEmpty(previous.eTag) && Util.isStringNullOrEmpty(previous.lastModified));
+		this.name = getName(this.url);
+		this.userAgent = userAgent;
+		long start = System.nanoTime();
+		try {
+			probe(transport, transport.send("HEAD", url, headers()));
+			metrics.probed(url.getHost(), System.nanoTime() - start);
+		} catch (IOException ex) {
+			// unreachable, nothing is known about the file
+			metrics.failed(url.getHost(), ex);
+		}
+		this.changed = conditional && probed && !notModified && !isSameVersion(previous);
+		this.previous = null;
+	}
+
+	/**
+	 * Probes on a connection opened by the caller.
+	 */
 	HttpInfo(HttpURLConnection con, String userAgent) {
-		this.con = con;
+		this.url = con.getURL();
+		this.name = getName(this.url);
 		this.userAgent = userAgent;
 		try {
-			con.setInstanceFollowRedirects(true);
-			con.setRequestProperty("Range", "bytes=0-");
-			con.setRequestProperty("User-Agent", userAgent);
-			con.setRequestMethod("GET");
-			String contentDisposition = con.getHeaderField("Content-Disposition");
-			if (!Util.isNull(contentDisposition) && contentDisposition.contains("=")) {
-				name = contentDisposition.split("=")[1].replaceAll("\"", "");
-			} else {
-				URL url = con.getURL();
-				name = url.getPath().substring(url.getPath().lastIndexOf('/') + 1, url.getPath().length())
-						.replaceAll("%20", " ");
+			probe(Transport.urlConnection(), UrlConnectionTransport.send(con, "HEAD", headers()));
+		} catch (IOException ex) {
+			// unreachable, nothing is known about the file
+		}
+	}
+
+	private Map<String, String> headers() {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("User-Agent", userAgent);
+		if (conditional) {
+			if (!Util.isStringNullOrEmpty(previous.eTag))
+				headers.put("If-None-Match", previous.eTag);
+			if (!Util.isStringNullOrEmpty(previous.lastModified))
+				headers.put("If-Modified-Since", previous.lastModified);
+		}
+		return headers;
+	}
+
+	private void probe(Transport transport, Transport.Response head) throws IOException {
+		try {
+			int responseCode = head.getStatus();
+			if (isNotModified(responseCode)) {
+				head.close();
+				return;
+			}
+			String acceptRanges = head.getHeader("Accept-Ranges");
+			partial = responseCode == HttpURLConnection.HTTP_PARTIAL || "bytes".equalsIgnoreCase(acceptRanges);
+			if (responseCode < HttpURLConnection.HTTP_BAD_REQUEST && head.getContentLength() >= 0
+					&& (partial || "none".equalsIgnoreCase(acceptRanges))) {
+				readHeaders(head);
+				contentMd5 = head.getHeader("Content-MD5");
+				contentLength = head.getContentLength();
+				probed = true;
+				head.close();
+				return;
+			}
+		} catch (IOException ex) {
+			head.abort();
+			throw ex;
+		}
+		head.close();
+		probeRange(transport);
+	}
+
+	/**
+	 * A server answering the ranged GET with the whole body is aborted rather than read to the end.
+	 */
+	private void probeRange(Transport transport) throws IOException {
+		Map<String, String> headers = headers();
+		headers.put("Range", "bytes=0-0");
+		Transport.Response range = transport.send("GET", url, headers);
+		try {
+			int responseCode = range.getStatus();
+			if (isNotModified(responseCode)) {
+				range.close();
+				return;
 			}
-			con.connect();
-			if (con.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+			readHeaders(range);
+			probed = responseCode < HttpURLConnection.HTTP_BAD_REQUEST;
+			if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
 				partial = true;
+				contentLength = getTotalLength(range.getHeader("Content-Range"));
+				try (InputStream in = range.getBody()) {
+					while (in.read() != -1) {
+					}
+				}
+				range.close();
+			} else {
+				partial = false;
+				contentMd5 = range.getHeader("Content-MD5");
+				contentLength = range.getContentLength();
+				range.abort();
 			}
-			eTag = con.getHeaderField("ETag");
-			lastModified = con.getHeaderField("Last-Modified");
-			contentType = con.getHeaderField("Content-Type");
-			contentLength = con.getContentLengthLong();
-			con.disconnect();
 		} catch (IOException ex) {
-			con.disconnect();
+			range.abort();
+			throw ex;
+		}
+	}
+
+	/**
+	 * A 304 to a conditional probe takes over the previous one.
+	 */
+	private boolean isNotModified(int responseCode) {
+		if (!conditional || responseCode != HttpURLConnection.HTTP_NOT_MODIFIED)
+			return false;
+		url = previous.url;
+		name = previous.name;
+		eTag = previous.eTag;
+		partial = previous.partial;
+		contentType = previous.contentType;
+		contentLength = previous.contentLength;
+		lastModified = previous.lastModified;
+		digest = previous.digest;
+		contentMd5 = previous.contentMd5;
+		probed = true;
+		notModified = true;
+		return true;
+	}
+
+	private void readHeaders(Transport.Response response) {
+		url = response.getUrl();
+		String contentDisposition = response.getHeader("Content-Disposition");
+		if (!Util.isNull(contentDisposition) && contentDisposition.contains("=")) {
+			name = contentDisposition.split("=")[1].replaceAll("\"", "");
+		} else {
+			name = getName(url);
+		}
+		eTag = response.getHeader("ETag");
+		lastModified = response.getHeader("Last-Modified");
+		contentType = response.getHeader("Content-Type");
+		digest = response.getHeader("Digest");
+		if (Util.isNull(digest))
+			digest = response.getHeader("Repr-Digest");
+	}
+
+	private static String getName(URL url) {
+		return url.getPath().substring(url.getPath().lastIndexOf('/') + 1, url.getPath().length())
+				.replaceAll("%20", " ");
+	}
+
+	/**
+	 * Strong ETag, else Last-Modified. Sent as If-Range so a changed remote file is never spliced.
+	 *
+	 * @return validator or null if the server sent none
+	 */
+	String getValidator() {
+		if (!Util.isStringNullOrEmpty(eTag) && !eTag.startsWith("W/"))
+			return eTag;
+		return Util.isStringNullOrEmpty(lastModified) ? null : lastModified;
+	}
+
+	/**
+	 * @return true if the probe got an answer that describes the file, which excludes errors
+	 */
+	boolean isProbed() {
+		return probed;
+	}
+
+	/**
+	 * @return true if the probe was sent with the validators of a previous one
+	 */
+	boolean isConditional() {
+		return conditional;
+	}
+
+	/**
+	 * @return true if the server answered the conditional probe with 304 Not Modified
+	 */
+	boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * A server may ignore the conditional headers and answer 200 for a file that did not change.
+	 *
+	 * @return true if a conditional probe got different validators or length than the previous probe
+	 */
+	boolean isChanged() {
+		return changed;
+	}
+
+	private boolean isSameVersion(HttpInfo other) {
+		return contentLength == other.contentLength && Objects.equals(eTag, other.eTag)
+				&& Objects.equals(lastModified, other.lastModified);
+	}
+
+	/**
+	 * A mirror serves the same file if it has the same length and validator and accepts ranges.
+	 */
+	boolean isSameFile(HttpInfo other) {
+		return partial && other.partial && contentLength == other.contentLength
+				&& Objects.equals(getValidator(), other.getValidator());
+	}
+
+	/**
+	 * @param contentRange header like bytes 0-0/1234
+	 * @return total length or -1 if unknown
+	 */
+	static long getTotalLength(String contentRange) {
+		if (Util.isNull(contentRange) || !contentRange.contains("/"))
+			return -1;
+		try {
+			return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 
 	public URL getUrl() {
-		return con.getURL();
+		return url;
 	}
 
 	public String getName() {
@@ -81,4 +301,18 @@ public class HttpInfo implements Serializable {
 	public String getLastModified() {
 		return lastModified;
 	}
+
+	/**
+	 * @return Digest or Repr-Digest header of the whole file, null if the server sent none
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * @return Content-MD5 header of the whole file, null if the server sent none
+	 */
+	public String getContentMd5() {
+		return contentMd5;
+	}
 }
@@ -0,0 +1,228 @@
+package com.nabilanam.libdownloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Probed metadata of remote files by url, so building a download again does not probe again.
+ * The most recently used entries are kept in memory, and optionally every entry in a directory where it
+ * outlives the process. Entries younger than the maximum age are used without a request, older ones are
+ * revalidated with a conditional probe that the server answers with 304 Not Modified if nothing changed.
+ *
+ * @author nabil
+ */
+public final class HttpInfoCache {
+
+	private final int maxEntries;
+	private final long maxAgeMillis;
+	private final Path directory;
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Cache kept in memory only.
+	 *
+	 * @param maxEntries   number of urls kept, the least recently used are dropped.
+	 * @param maxAgeMillis age up to which an entry is used without revalidation, 0 to always revalidate.
+	 */
+	public HttpInfoCache(int maxEntries, long maxAgeMillis) {
+		this(maxEntries, maxAgeMillis, null);
+	}
+
+	/**
+	 * Cache kept in memory and in a directory. Entries dropped from memory are read back from the directory,
+	 * which is shared by processes using the same one.
+	 *
+	 * @param maxEntries   number of urls kept in memory, the least recently used are dropped.
+	 * @param maxAgeMillis age up to which an entry is used without revalidation, 0 to always revalidate.
+	 * @param directory    directory of one file per url, null to keep entries in memory only.
+	 */
+	public HttpInfoCache(int maxEntries, long maxAgeMillis, Path directory) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxAgeMillis = Math.max(0, maxAgeMillis);
+		this.directory = directory;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HttpInfoCache.Entry> eldest) {
+				return size() > HttpInfoCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param url requested url, before redirects.
+	 * @return metadata of the last probe of the url whatever its age, null if unknown
+	 */
+	public HttpInfo get(URL url) {
+		Entry entry = getEntry(url);
+		return Util.isNull(entry) ? null : entry.info;
+	}
+
+	/**
+	 * @param url  requested url, before redirects.
+	 * @param info metadata of the url.
+	 */
+	public void put(URL url, HttpInfo info) {
+		Entry entry = new Entry(info, System.currentTimeMillis());
+		synchronized (this) {
+			entries.put(key(url), entry);
+		}
+		store(url, entry);
+	}
+
+	/**
+	 * Forgets the url in memory and in the directory.
+	 *
+	 * @param url requested url, before redirects.
+	 */
+	public void remove(URL url) {
+		synchronized (this) {
+			entries.remove(key(url));
+		}
+		if (!Util.isNull(directory)) {
+			try {
+				Files.deleteIfExists(path(url));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return number of urls in memory
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * A fresh entry is returned as it is, unless revalidation is forced. A stale or forced one is probed
+	 * conditionally, an unknown url unconditionally. Failed probes and error responses are not cached.
+	 *
+	 * @param revalidate true to probe conditionally whatever the age of the entry
+	 * @return metadata of the url, marked not modified if the server answered 304
+	 */
+	HttpInfo probe(Transport transport, URL url, String userAgent, DownloadMetrics metrics, boolean revalidate) {
+		Entry entry = getEntry(url);
+		if (!Util.isNull(entry) && !revalidate && System.currentTimeMillis() - entry.storedAt < maxAgeMillis)
+			return entry.info;
+		HttpInfo info = new HttpInfo(transport, url, userAgent, metrics, Util.isNull(entry) ? null : entry.info);
+		if (info.isProbed())
+			put(url, info);
+		return info;
+	}
+
+	private Entry getEntry(URL url) {
+		String key = key(url);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (!Util.isNull(entry))
+				return entry;
+		}
+		Entry entry = load(url);
+		if (!Util.isNull(entry)) {
+			synchronized (this) {
+				entries.putIfAbsent(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @return entry stored in the directory, null if there is none or it is unreadable
+	 */
+	private Entry load(URL url) {
+		if (Util.isNull(directory))
+			return null;
+		Path path = path(url);
+		if (!Files.exists(path))
+			return null;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+			if (!key(url).equals(in.readUTF()))
+				return null;
+			long storedAt = in.readLong();
+			return new Entry((HttpInfo) in.readObject(), storedAt);
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			// written by an incompatible version, probed again
+			return null;
+		}
+	}
+
+	/**
+	 * Written to a temporary sibling first, then moved over the old file, so other processes never read a
+	 * partial entry.
+	 */
+	private void store(URL url, Entry entry) {
+		if (Util.isNull(directory))
+			return;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeUTF(key(url));
+				out.writeLong(entry.storedAt);
+				out.writeObject(entry.info);
+			}
+			Util.createDirectory(directory);
+			Path path = path(url);
+			Path tmp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tmp, bytes.toByteArray());
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			// the entry is still cached in memory
+			e.printStackTrace();
+		}
+	}
+
+	private static String key(URL url) {
+		return url.toExternalForm();
+	}
+
+	/**
+	 * @return file named by the SHA-256 of the url
+	 */
+	private Path path(URL url) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key(url).getBytes(StandardCharsets.UTF_8));
+			return directory.resolve(StreamingDigest.toHex(hash) + ".info");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Entry {
+		private final HttpInfo info;
+		private final long storedAt;
+
+		private Entry(HttpInfo info, long storedAt) {
+			this.info = info;
+			this.storedAt = storedAt;
+		}
+	}
+}
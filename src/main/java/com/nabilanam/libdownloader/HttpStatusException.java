@@ -0,0 +1,27 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+
+/**
+ * The server answered with a status the request cannot continue with.
+ *
+ * @author nabil
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	public HttpStatusException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	/**
+	 * @return http status code of the response
+	 */
+	public int getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,318 @@
+package com.nabilanam.libdownloader;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the metrics of every host as an MXBean named
+ * {@code com.nabilanam.libdownloader:type=Host,name=<name>,host=<host>} on the platform MBean server,
+ * readable with JConsole, VisualVM or any JMX exporter. One instance may be shared by many downloads.
+ *
+ * @author nabil
+ */
+public final class JmxMetrics implements DownloadMetrics {
+
+	private static final String DOMAIN = "com.nabilanam.libdownloader";
+
+	private final String name;
+	private final MBeanServer server;
+	private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * Metrics named default.
+	 */
+	public JmxMetrics() {
+		this("default");
+	}
+
+	/**
+	 * @param name tells the MBeans of this instance apart from those of others
+	 */
+	public JmxMetrics(String name) {
+		this(name, ManagementFactory.getPlatformMBeanServer());
+	}
+
+	JmxMetrics(String name, MBeanServer server) {
+		this.name = name;
+		this.server = server;
+	}
+
+	/**
+	 * @return metrics of the host, null if nothing was reported for it yet
+	 */
+	public HostMXBean getHost(String host) {
+		return hosts.get(host);
+	}
+
+	/**
+	 * Unregisters the MBeans of every host, the metrics keep counting if still used.
+	 */
+	public void close() {
+		for (String host : hosts.keySet()) {
+			try {
+				server.unregisterMBean(objectName(host));
+			} catch (JMException e) {
+				// already unregistered
+			}
+		}
+	}
+
+	ObjectName objectName(String host) throws JMException {
+		return new ObjectName(DOMAIN + ":type=Host,name=" + ObjectName.quote(name) + ",host=" + ObjectName.quote(host));
+	}
+
+	private Host host(String host) {
+		Host metrics = hosts.get(host);
+		if (!Util.isNull(metrics))
+			return metrics;
+		return hosts.computeIfAbsent(host, key -> {
+			Host created = new Host();
+			try {
+				server.registerMBean(created, objectName(key));
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+			return created;
+		});
+	}
+
+	@Override
+	public void probed(String host, long nanos) {
+		host(host).probe.record(nanos);
+	}
+
+	@Override
+	public void connected(String host, long nanos) {
+		host(host).connect.record(nanos);
+	}
+
+	@Override
+	public void firstByte(String host, long nanos) {
+		host(host).firstByte.record(nanos);
+	}
+
+	@Override
+	public void requestStarted(String host) {
+		host(host).active.incrementAndGet();
+	}
+
+	@Override
+	public void requestEnded(String host, long bytes, long nanos) {
+		Host metrics = host(host);
+		metrics.active.decrementAndGet();
+		metrics.requests.increment();
+		metrics.bytes.add(bytes);
+		metrics.requestNanos.add(nanos);
+	}
+
+	@Override
+	public void retried(String host, IOException e) {
+		host(host).retries.increment();
+	}
+
+	@Override
+	public void failed(String host, IOException e) {
+		host(host).failures.increment();
+	}
+
+	@Override
+	public void merged(String host, long nanos) {
+		host(host).merge.record(nanos);
+	}
+
+	@Override
+	public void queued(String host, long nanos) {
+		host(host).queue.record(nanos);
+	}
+
+	@Override
+	public void completed(String host, long bytes, long nanos) {
+		Host metrics = host(host);
+		metrics.downloads.increment();
+		metrics.downloadBytes.add(bytes);
+		metrics.downloadNanos.add(nanos);
+	}
+
+	/**
+	 * Attributes of the MBean of a host.
+	 */
+	public interface HostMXBean {
+
+		/**
+		 * @return bytes received from the host
+		 */
+		long getBytes();
+
+		long getRequests();
+
+		/**
+		 * @return requests currently sent to the host, one per active segment
+		 */
+		int getActiveRequests();
+
+		/**
+		 * @return average throughput of a single connection to the host
+		 */
+		long getConnectionBytesPerSecond();
+
+		long getRetries();
+
+		long getFailures();
+
+		long getCompletedDownloads();
+
+		/**
+		 * @return average throughput of the completed downloads from the host
+		 */
+		long getDownloadBytesPerSecond();
+
+		Latency getProbe();
+
+		Latency getConnect();
+
+		Latency getFirstByte();
+
+		Latency getMerge();
+
+		Latency getQueueWait();
+	}
+
+	/**
+	 * Snapshot of a latency histogram, percentiles are accurate to a factor of two.
+	 */
+	public static final class Latency {
+		private final long count;
+		private final double meanMillis;
+		private final double p50Millis;
+		private final double p90Millis;
+		private final double p99Millis;
+		private final double maxMillis;
+
+		private Latency(LatencyHistogram histogram) {
+			this.count = histogram.getCount();
+			this.meanMillis = histogram.getMeanMillis();
+			this.p50Millis = histogram.getPercentileMillis(0.5);
+			this.p90Millis = histogram.getPercentileMillis(0.9);
+			this.p99Millis = histogram.getPercentileMillis(0.99);
+			this.maxMillis = histogram.getMaxMillis();
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+
+		public double getP50Millis() {
+			return p50Millis;
+		}
+
+		public double getP90Millis() {
+			return p90Millis;
+		}
+
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+	}
+
+	private static final class Host implements HostMXBean {
+		private final LatencyHistogram probe = new LatencyHistogram();
+		private final LatencyHistogram connect = new LatencyHistogram();
+		private final LatencyHistogram firstByte = new LatencyHistogram();
+		private final LatencyHistogram merge = new LatencyHistogram();
+		private final LatencyHistogram queue = new LatencyHistogram();
+		private final AtomicInteger active = new AtomicInteger();
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder requestNanos = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder downloads = new LongAdder();
+		private final LongAdder downloadBytes = new LongAdder();
+		private final LongAdder downloadNanos = new LongAdder();
+
+		@Override
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		@Override
+		public long getRequests() {
+			return requests.sum();
+		}
+
+		@Override
+		public int getActiveRequests() {
+			return active.get();
+		}
+
+		@Override
+		public long getConnectionBytesPerSecond() {
+			return rate(bytes.sum(), requestNanos.sum());
+		}
+
+		@Override
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		@Override
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		@Override
+		public long getCompletedDownloads() {
+			return downloads.sum();
+		}
+
+		@Override
+		public long getDownloadBytesPerSecond() {
+			return rate(downloadBytes.sum(), downloadNanos.sum());
+		}
+
+		@Override
+		public Latency getProbe() {
+			return new Latency(probe);
+		}
+
+		@Override
+		public Latency getConnect() {
+			return new Latency(connect);
+		}
+
+		@Override
+		public Latency getFirstByte() {
+			return new Latency(firstByte);
+		}
+
+		@Override
+		public Latency getMerge() {
+			return new Latency(merge);
+		}
+
+		@Override
+		public Latency getQueueWait() {
+			return new Latency(queue);
+		}
+
+		private static long rate(long bytes, long nanos) {
+			return nanos <= 0 ? 0 : (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+		}
+	}
+}
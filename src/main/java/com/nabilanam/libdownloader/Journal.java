@@ -0,0 +1,116 @@
+package com.nabilanam.libdownloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persists segment progress of a download together with the content length and validators of the
+ * remote file, so it is only resumed while the remote file is unchanged.
+ *
+ * @author nabil
+ */
+final class Journal {
+
+	private static final int VERSION = 2;
+
+	private final Path path;
+	private final long contentLength;
+	private final String eTag;
+	private final String lastModified;
+
+	Journal(Path path, long contentLength, String eTag, String lastModified) {
+		this.path = path;
+		this.contentLength = contentLength;
+		this.eTag = Util.isNull(eTag) ? "" : eTag;
+		this.lastModified = Util.isNull(lastModified) ? "" : lastModified;
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	boolean exists() {
+		return Util.isNonDirectoryFile(path.toFile());
+	}
+
+	/**
+	 * @return saved segments or empty list if journal is missing, corrupt or of another version of the remote file
+	 */
+	List<Segment> read() {
+		List<Segment> segments = new ArrayList<>();
+		if (!exists())
+			return segments;
+		try {
+			byte[] bytes = Files.readAllBytes(path);
+			if (bytes.length < Integer.BYTES)
+				return segments;
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - Integer.BYTES);
+			if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt())
+				return segments;
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				if (in.readInt() != VERSION || in.readLong() != contentLength
+						|| !eTag.equals(in.readUTF()) || !lastModified.equals(in.readUTF()))
+					return segments;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long begin = in.readLong();
+					long end = in.readLong();
+					long position = in.readLong();
+					segments.add(new Segment(begin, end, position));
+				}
+			}
+		} catch (IOException e) {
+			segments.clear();
+		}
+		return segments;
+	}
+
+	/**
+	 * Written and forced to a sibling file first, then moved over the old journal.
+	 */
+	void write(List<Segment> segments) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + segments.size() * 3 * Long.BYTES);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			out.writeLong(contentLength);
+			out.writeUTF(eTag);
+			out.writeUTF(lastModified);
+			out.writeInt(segments.size());
+			for (Segment segment : segments) {
+				out.writeLong(segment.getBegin());
+				out.writeLong(segment.getEnd());
+				out.writeLong(segment.getPosition());
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeInt((int) crc.getValue());
+		}
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void delete() throws IOException {
+		Files.deleteIfExists(path);
+	}
+}
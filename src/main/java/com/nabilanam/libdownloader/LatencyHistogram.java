@@ -0,0 +1,69 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations in buckets of powers of two microseconds, so percentiles are accurate
+ * to a factor of two at a fixed size.
+ *
+ * @author nabil
+ */
+final class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		counts.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		count.increment();
+		sum.add(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : toMillis(sum.sum()) / n;
+	}
+
+	double getMaxMillis() {
+		return toMillis(max.get());
+	}
+
+	/**
+	 * @param percentile between 0 and 1
+	 * @return upper bound of the bucket holding the percentile, never above the maximum
+	 */
+	double getPercentileMillis(double percentile) {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << i) / 1e6, getMaxMillis());
+		}
+		return getMaxMillis();
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,202 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A file channel on a growable byte array, so that workers write an in-memory download exactly like a
+ * preallocated file. Every operation holds the lock of the channel, concurrent positional writes of
+ * different ranges only wait for each other's copy.
+ *
+ * @author nabil
+ */
+final class MemoryChannel extends FileChannel {
+
+	private final int limit;
+	private byte[] bytes;
+	private int size;
+	private long position;
+
+	/**
+	 * @param capacity initial size of the array
+	 * @param limit    size the channel never grows beyond
+	 */
+	MemoryChannel(int capacity, int limit) {
+		this.limit = limit;
+		this.bytes = new byte[Math.min(capacity, limit)];
+	}
+
+	/**
+	 * @return read-only view of the content, not copied
+	 */
+	synchronized ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(bytes, 0, size).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) {
+		int read = read(dst, position);
+		if (read > 0)
+			position += read;
+		return read;
+	}
+
+	@Override
+	public synchronized long read(ByteBuffer[] dsts, int offset, int length) {
+		long total = 0;
+		for (int i = offset; i < offset + length; i++) {
+			int read = read(dsts[i]);
+			if (read == -1)
+				return total == 0 ? -1 : total;
+			total += read;
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst, long position) {
+		checkPosition(position);
+		if (position >= size)
+			return -1;
+		int length = (int) Math.min(dst.remaining(), size - position);
+		dst.put(bytes, (int) position, length);
+		return length;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src) throws IOException {
+		int written = write(src, position);
+		position += written;
+		return written;
+	}
+
+	@Override
+	public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		long total = 0;
+		for (int i = offset; i < offset + length; i++) {
+			total += write(srcs[i]);
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src, long position) throws IOException {
+		checkPosition(position);
+		int length = src.remaining();
+		// within the limit, so the position fits in an int below
+		if (position > limit - length)
+			throw new LimitExceededException("Content exceeds the in-memory limit of " + limit + " bytes");
+		ensureCapacity((int) position + length);
+		src.get(bytes, (int) position, length);
+		size = Math.max(size, (int) position + length);
+		return length;
+	}
+
+	private void ensureCapacity(int end) {
+		if (end > bytes.length) {
+			byte[] grown = new byte[(int) Math.min(limit, Math.max(end, 2L * bytes.length))];
+			System.arraycopy(bytes, 0, grown, 0, size);
+			bytes = grown;
+		}
+	}
+
+	@Override
+	public synchronized long position() {
+		return position;
+	}
+
+	@Override
+	public synchronized FileChannel position(long newPosition) {
+		checkPosition(newPosition);
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() {
+		return size;
+	}
+
+	@Override
+	public synchronized FileChannel truncate(long size) {
+		checkPosition(size);
+		if (size < this.size)
+			this.size = (int) size;
+		if (position > size)
+			position = size;
+		return this;
+	}
+
+	@Override
+	public void force(boolean metaData) {
+	}
+
+	@Override
+	public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		checkPosition(position);
+		if (position >= size)
+			return 0;
+		return target.write(ByteBuffer.wrap(bytes, (int) position, (int) Math.min(count, size - position)));
+	}
+
+	@Override
+	public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+		long total = 0;
+		while (total < count) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), count - total));
+			int read = src.read(buffer);
+			if (read <= 0)
+				break;
+			buffer.flip();
+			total += write(buffer, position + total);
+		}
+		return total;
+	}
+
+	/**
+	 * Positions past the int range are only compared with the size, or rejected by the limit before they
+	 * index the array.
+	 */
+	private static void checkPosition(long position) {
+		if (position < 0)
+			throw new IllegalArgumentException("Negative position " + position);
+	}
+
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size) {
+		throw new UnsupportedOperationException("In-memory channel cannot be mapped");
+	}
+
+	@Override
+	public FileLock lock(long position, long size, boolean shared) {
+		throw new UnsupportedOperationException("In-memory channel cannot be locked");
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) {
+		throw new UnsupportedOperationException("In-memory channel cannot be locked");
+	}
+
+	@Override
+	protected void implCloseChannel() {
+		// the content stays readable
+	}
+
+	/**
+	 * Not retried, the content would not fit on a second attempt either.
+	 */
+	static final class LimitExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		LimitExceededException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.nabilanam.libdownloader;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Servers holding the same file. Every request of a worker goes to the mirror with the fewest connections
+ * for its measured throughput, so connections are spread in proportion to how fast each mirror serves them.
+ * Mirrors not measured yet are tried first. A mirror that fails is not used again while another one is left.
+ *
+ * @author nabil
+ */
+final class Mirrors {
+
+	/**
+	 * Weight of the newest sample in the throughput average.
+	 */
+	private static final double SMOOTHING = 0.3;
+
+	private final List<Mirror> mirrors;
+
+	Mirrors(List<URL> urls) {
+		this.mirrors = new ArrayList<>(urls.size());
+		for (URL url : urls) {
+			mirrors.add(new Mirror(url));
+		}
+	}
+
+	/**
+	 * @return mirror for the next request
+	 */
+	synchronized Mirror acquire() {
+		Mirror best = null;
+		for (Mirror mirror : mirrors) {
+			if (mirror.failed)
+				continue;
+			if (Util.isNull(best) || mirror.load() < best.load())
+				best = mirror;
+		}
+		best.active++;
+		return best;
+	}
+
+	/**
+	 * @param bytes bytes the request transferred
+	 * @param nanos time the request took
+	 */
+	synchronized void release(Mirror mirror, long bytes, long nanos) {
+		mirror.active--;
+		if (bytes <= 0 || nanos <= 0)
+			return;
+		double rate = (double) bytes / nanos;
+		mirror.rate = mirror.rate == 0 ? rate : mirror.rate * (1 - SMOOTHING) + rate * SMOOTHING;
+	}
+
+	/**
+	 * The mirror gets no more requests, ranges it did not finish go to the others. The last mirror left
+	 * is kept, its requests are retried instead.
+	 *
+	 * @return false if the mirror is the last one left
+	 */
+	synchronized boolean fail(Mirror mirror) {
+		mirror.active--;
+		int available = 0;
+		for (Mirror other : mirrors) {
+			if (!other.failed)
+				available++;
+		}
+		if (available < 2)
+			return false;
+		mirror.failed = true;
+		return true;
+	}
+
+	synchronized List<URL> getUrls() {
+		List<URL> urls = new ArrayList<>(mirrors.size());
+		for (Mirror mirror : mirrors) {
+			urls.add(mirror.url);
+		}
+		return urls;
+	}
+
+	static final class Mirror {
+		private final URL url;
+		private int active;
+		private double rate;
+		private boolean failed;
+
+		private Mirror(URL url) {
+			this.url = url;
+		}
+
+		URL getUrl() {
+			return url;
+		}
+
+		/**
+		 * Connections per throughput, including the one about to be opened. Unmeasured mirrors come first.
+		 */
+		private double load() {
+			if (rate == 0)
+				return active - (double) Integer.MAX_VALUE;
+			return (active + 1) / rate;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One daemon selector thread driving the connections of all non-blocking downloads.
+ * Connections are served one after another, so they all read into a single buffer and write it to disk
+ * before the next one is read.
+ *
+ * @author nabil
+ */
+final class NioEngine implements Runnable {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final long SELECT_MILLIS = 100;
+	private static NioEngine engine;
+	private static ExecutorService checkpoints;
+
+	private final Selector selector;
+	private final Queue<NioWorker> added = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private NioEngine() throws IOException {
+		selector = Selector.open();
+	}
+
+	static synchronized void submit(NioWorker worker) throws IOException {
+		if (Util.isNull(engine)) {
+			engine = new NioEngine();
+			Thread thread = new Thread(engine, "libdownloader-nio");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		engine.added.add(worker);
+		engine.selector.wakeup();
+	}
+
+	/**
+	 * Runs a checkpoint away from the selector thread, so an fsync does not stall every connection.
+	 */
+	static synchronized void checkpoint(Runnable task) {
+		if (Util.isNull(checkpoints)) {
+			checkpoints = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "libdownloader-checkpoint");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		checkpoints.execute(task);
+	}
+
+	@Override
+	public void run() {
+		try {
+			loop();
+		} finally {
+			died();
+		}
+	}
+
+	private void loop() {
+		long timeout = SELECT_MILLIS;
+		while (true) {
+			try {
+				selector.select(timeout);
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			NioWorker worker;
+			while (!Util.isNull(worker = added.poll())) {
+				try {
+					worker.start(selector);
+				} catch (IOException | RuntimeException | Error e) {
+					worker.fail(e);
+				}
+			}
+			for (SelectionKey key : selector.selectedKeys()) {
+				worker = (NioWorker) key.attachment();
+				try {
+					worker.handle(key, buffer);
+				} catch (IOException | RuntimeException | Error e) {
+					worker.fail(e);
+				}
+			}
+			selector.selectedKeys().clear();
+			long wait = Long.MAX_VALUE;
+			for (SelectionKey key : selector.keys()) {
+				if (!key.isValid())
+					continue;
+				worker = (NioWorker) key.attachment();
+				try {
+					wait = Math.min(wait, worker.poll());
+				} catch (RuntimeException | Error e) {
+					worker.fail(e);
+				}
+			}
+			timeout = Math.max(1, Math.min(SELECT_MILLIS, TimeUnit.NANOSECONDS.toMillis(wait)));
+		}
+	}
+
+	/**
+	 * The thread is gone, the next submit starts another one. Connections of this selector are dropped
+	 * and retried there, workers still queued are handed over.
+	 */
+	private void died() {
+		synchronized (NioEngine.class) {
+			if (engine == this)
+				engine = null;
+		}
+		IOException error = new IOException("Non-blocking engine stopped");
+		for (SelectionKey key : selector.keys()) {
+			try {
+				((NioWorker) key.attachment()).fail(error);
+			} catch (RuntimeException | Error e) {
+				e.printStackTrace();
+			}
+		}
+		NioWorker worker;
+		while (!Util.isNull(worker = added.poll())) {
+			try {
+				submit(worker);
+			} catch (IOException e) {
+				worker.fail(e);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
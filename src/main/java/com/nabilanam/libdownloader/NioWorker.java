@@ -0,0 +1,467 @@
+package com.nabilanam.libdownloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single non-blocking HTTP/1.1 connection taking segments from the scheduler like a Worker does.
+ * Ranges are requested one after another on the same connection while the server keeps it alive.
+ * Only ever touched by the NioEngine thread.
+ *
+ * @author nabil
+ */
+final class NioWorker {
+
+	private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+	private enum State {CONNECTING, SENDING, HEAD, BODY}
+
+	private final Download download;
+	private final SegmentScheduler scheduler;
+	private final FileChannel channel;
+	private final CountDownLatch stopLatch;
+	private final CountDownLatch doneLatch;
+	private final InetSocketAddress address;
+	private final String host;
+	private final String file;
+	private final String userAgent;
+	private final String validator;
+	private final StreamingDigest digest;
+	private final long checkpointBytes;
+	private final long checkpointNanos;
+	private final RetryPolicy retry;
+	private final long connectTimeoutNanos;
+	private final long readTimeoutNanos;
+	private final StallDetector stall;
+	private final DownloadMetrics metrics;
+	private final String hostName;
+	private final ByteArrayOutputStream head = new ByteArrayOutputStream(1024);
+	private int headTail;
+	private Selector selector;
+	private SocketChannel socket;
+	private SelectionKey key;
+	private State state;
+	private Segment segment;
+	private FileChannel part;
+	private ByteBuffer request;
+	private long bodyRemaining;
+	private boolean keepAlive;
+	private boolean ended;
+	private long sinceCheckpoint;
+	private long checkpointAt;
+	private volatile boolean checkpointing;
+	private long resumeAt;
+	private boolean paused;
+	private boolean finishing;
+	private boolean sending;
+	private int attempt;
+	private long lastActivity;
+	private long connectAt;
+	private long requestAt;
+	private long requestBytes;
+	private boolean requesting;
+
+	/**
+	 * @param address resolved address of the url, so that the engine thread never waits on DNS
+	 */
+	NioWorker(Download download, URL url, InetSocketAddress address, SegmentScheduler scheduler, FileChannel channel,
+	          CountDownLatch stopLatch, CountDownLatch doneLatch) {
+		this.download = download;
+		this.scheduler = scheduler;
+		this.channel = channel;
+		this.stopLatch = stopLatch;
+		this.doneLatch = doneLatch;
+		this.address = address;
+		this.host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		this.file = url.getFile().isEmpty() ? "/" : url.getFile();
+		this.userAgent = download.getHttpInfo().getUserAgent();
+		this.validator = download.getValidator();
+		this.digest = download.getDigest();
+		this.checkpointBytes = download.getCheckpointBytes();
+		this.checkpointNanos = TimeUnit.MILLISECONDS.toNanos(download.getCheckpointInterval());
+		this.retry = Util.isNull(download.getRetryPolicy()) ? RetryPolicy.NONE : download.getRetryPolicy();
+		this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(download.getConnectTimeout());
+		this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(download.getReadTimeout());
+		this.stall = download.getStallBytesPerSecond() > 0
+				? new StallDetector(download.getStallBytesPerSecond(), download.getStallMillis()) : null;
+		this.metrics = download.getMetrics();
+		this.hostName = url.getHost();
+	}
+
+	static boolean isSupported(URL url) {
+		return "http".equalsIgnoreCase(url.getProtocol());
+	}
+
+	/**
+	 * Called again after a retry delay, the segment is then continued from its position.
+	 */
+	void start(Selector selector) throws IOException {
+		this.selector = selector;
+		if (download.isStopping()) {
+			end(false);
+			return;
+		}
+		checkpointAt = System.nanoTime() + checkpointNanos;
+		if (Util.isNull(segment))
+			segment = scheduler.next(null);
+		if (Util.isNull(segment))
+			end(true);
+		else
+			connect();
+	}
+
+	void handle(SelectionKey key, ByteBuffer buffer) throws IOException {
+		if (ended || !key.isValid())
+			return;
+		if (key.isConnectable() && socket.finishConnect()) {
+			metrics.connected(hostName, System.nanoTime() - connectAt);
+			send();
+		} else if (key.isWritable()) {
+			write();
+		} else if (key.isReadable()) {
+			read(buffer);
+		}
+	}
+
+	/**
+	 * Called on every turn of the engine, stops the connection once the download is stopping, fails it
+	 * once it timed out or stalled and goes on once a rate limit pause is over.
+	 *
+	 * @return nanoseconds until the pause is over, Long.MAX_VALUE if not paused
+	 */
+	long poll() {
+		if (!ended && download.isStopping())
+			end(finishing);
+		if (ended)
+			return Long.MAX_VALUE;
+		long now = System.nanoTime();
+		if (!paused) {
+			IOException timeout = checkTimeout(now);
+			if (!Util.isNull(timeout))
+				fail(timeout);
+			return Long.MAX_VALUE;
+		}
+		long wait = resumeAt - now;
+		if (wait > 0)
+			return wait;
+		paused = false;
+		lastActivity = now;
+		if (finishing) {
+			end(true);
+		} else if (sending) {
+			sending = false;
+			send();
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the timeout the connection ran into, null if none
+	 */
+	private IOException checkTimeout(long now) {
+		if (state == State.CONNECTING) {
+			if (connectTimeoutNanos > 0 && now - lastActivity > connectTimeoutNanos)
+				return new SocketTimeoutException("Connect timed out to " + host);
+		} else if (readTimeoutNanos > 0 && now - lastActivity > readTimeoutNanos) {
+			return new SocketTimeoutException("Read timed out from " + host);
+		}
+		if (!Util.isNull(stall) && stall.isStalled(now))
+			return new SocketTimeoutException("Stalled below the minimum rate from " + host);
+		return null;
+	}
+
+	/**
+	 * The connection is dropped and the segment requested again after the retry delay. Once the retries
+	 * are used up the download fails, so that every worker stops and progress is saved. Anything but an
+	 * IOException fails the download right away.
+	 */
+	void fail(Throwable e) {
+		if (ended)
+			return;
+		closePart();
+		closeSocket();
+		endRequest();
+		paused = false;
+		sending = false;
+		if (!Util.isNull(stall))
+			stall.stop();
+		if (download.isStopping()) {
+			end(false);
+			return;
+		}
+		if (!(e instanceof IOException)) {
+			// malformed responses and bugs are not retried
+			download.failed(new IOException("Worker failed: " + e, e));
+			end(false);
+			return;
+		}
+		IOException error = (IOException) e;
+		if (!retry.shouldRetry(error, attempt)) {
+			download.failed(error);
+			end(false);
+			return;
+		}
+		metrics.retried(hostName, error);
+		Ticker.delay(this::resubmit, retry.delayNanos(attempt++));
+	}
+
+	private void resubmit() {
+		try {
+			NioEngine.submit(this);
+		} catch (IOException e) {
+			download.failed(e);
+			end(false);
+		}
+	}
+
+	private void connect() throws IOException {
+		closeSocket();
+		socket = SocketChannel.open();
+		socket.configureBlocking(false);
+		lastActivity = System.nanoTime();
+		connectAt = lastActivity;
+		if (socket.connect(address)) {
+			key = socket.register(selector, 0, this);
+			metrics.connected(hostName, System.nanoTime() - connectAt);
+			send();
+		} else {
+			state = State.CONNECTING;
+			key = socket.register(selector, SelectionKey.OP_CONNECT, this);
+		}
+	}
+
+	private void send() {
+		StringBuilder builder = new StringBuilder(256)
+				.append("GET ").append(file).append(" HTTP/1.1\r\n")
+				.append("Host: ").append(host).append("\r\n")
+				.append("Range: bytes=").append(segment.getPosition()).append('-').append(segment.getEnd()).append("\r\n")
+				.append("Accept-Encoding: identity\r\n");
+		if (!Util.isNull(userAgent))
+			builder.append("User-Agent: ").append(userAgent).append("\r\n");
+		if (!Util.isNull(validator))
+			builder.append("If-Range: ").append(validator).append("\r\n");
+		builder.append("\r\n");
+		request = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.ISO_8859_1));
+		head.reset();
+		headTail = 0;
+		lastActivity = System.nanoTime();
+		requestAt = lastActivity;
+		requestBytes = 0;
+		requesting = true;
+		metrics.requestStarted(hostName);
+		if (!Util.isNull(stall))
+			stall.start();
+		state = State.SENDING;
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	private void write() throws IOException {
+		socket.write(request);
+		if (!request.hasRemaining()) {
+			state = State.HEAD;
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void read(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		int read = socket.read(buffer);
+		if (read == -1)
+			throw new EOFException("Connection closed by " + host);
+		lastActivity = System.nanoTime();
+		if (!Util.isNull(stall))
+			stall.progress(read);
+		buffer.flip();
+		if (state == State.HEAD)
+			readHead(buffer);
+		if (state == State.BODY && buffer.hasRemaining())
+			readBody(buffer);
+	}
+
+	private void readHead(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			head.write(b);
+			headTail = headTail << 8 | (b & 0xff);
+			if (headTail == 0x0d0a0d0a) {
+				onHead();
+				return;
+			}
+		}
+		if (head.size() > MAX_HEAD_SIZE)
+			throw new IOException("Response head too large from " + host);
+	}
+
+	private void onHead() throws IOException {
+		metrics.firstByte(hostName, System.nanoTime() - requestAt);
+		String[] lines = new String(head.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+		String[] status = lines[0].split(" ");
+		int responseCode = status.length > 1 ? Integer.parseInt(status[1]) : -1;
+		Map<String, String> headers = new HashMap<>();
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon > 0)
+				headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+		}
+		if (responseCode == HttpURLConnection.HTTP_OK && !Util.isNull(validator)) {
+			download.remoteChanged();
+			end(false);
+			return;
+		}
+		if (responseCode != HttpURLConnection.HTTP_PARTIAL)
+			throw new HttpStatusException(responseCode, "Unexpected response code " + responseCode + " from " + host);
+		String contentLength = headers.get("content-length");
+		if (Util.isNull(contentLength))
+			throw new IOException("Partial response without Content-Length from " + host);
+		bodyRemaining = Long.parseLong(contentLength);
+		keepAlive = !"close".equalsIgnoreCase(headers.get("connection")) && lines[0].startsWith("HTTP/1.1");
+		if (Util.isNull(channel))
+			part = FileChannel.open(segment.getPart(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		state = State.BODY;
+	}
+
+	/**
+	 * The segment end may have moved down since the request when the scheduler split it, the rest of the
+	 * body then belongs to another segment and the connection is dropped.
+	 */
+	private void readBody(ByteBuffer buffer) throws IOException {
+		int length = (int) Math.min(buffer.remaining(), Math.min(bodyRemaining, segment.getRemaining()));
+		buffer.limit(buffer.position() + length);
+		ByteBuffer written = Util.isNull(digest) ? null : buffer.duplicate();
+		long at = segment.getPosition();
+		while (buffer.hasRemaining()) {
+			if (Util.isNull(part))
+				channel.write(buffer, segment.getPosition() + length - buffer.remaining());
+			else
+				part.write(buffer);
+		}
+		segment.advance(length);
+		if (!Util.isNull(written))
+			digest.update(at, written);
+		attempt = 0;
+		bodyRemaining -= length;
+		requestBytes += length;
+		download.downloaded(length);
+		checkpoint(length);
+		long delay = download.reserve(length);
+		if (segment.isComplete()) {
+			closePart();
+			endRequest();
+			boolean reusable = keepAlive && bodyRemaining == 0;
+			segment = scheduler.next(segment);
+			if (!Util.isNull(segment) && !reusable) {
+				connect();
+			} else if (delay > 0) {
+				// the debt is paid before the next request or the end, like a worker thread does
+				finishing = Util.isNull(segment);
+				sending = !finishing;
+				pause(delay);
+			} else if (Util.isNull(segment)) {
+				end(true);
+			} else {
+				send();
+			}
+		} else if (bodyRemaining == 0) {
+			throw new EOFException("Response ended before the segment from " + host);
+		} else if (delay > 0) {
+			// the rate limiters are in debt, stop reading until it is paid
+			pause(delay);
+		}
+	}
+
+	private void pause(long delay) {
+		paused = true;
+		resumeAt = System.nanoTime() + delay;
+		key.interestOps(0);
+		if (!Util.isNull(stall))
+			stall.paused(delay);
+	}
+
+	private void checkpoint(int length) {
+		sinceCheckpoint += length;
+		long now = System.nanoTime();
+		if (checkpointing || sinceCheckpoint < checkpointBytes && now - checkpointAt < 0)
+			return;
+		sinceCheckpoint = 0;
+		checkpointAt = now + checkpointNanos;
+		checkpointing = true;
+		FileChannel forced = part;
+		NioEngine.checkpoint(() -> {
+			try {
+				if (!Util.isNull(forced))
+					forced.force(false);
+				download.checkpoint();
+			} catch (ClosedChannelException e) {
+				// the part was closed meanwhile, a resume cuts it back to what reached the disk
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				checkpointing = false;
+			}
+		});
+	}
+
+	private void end(boolean finished) {
+		ended = true;
+		closePart();
+		closeSocket();
+		endRequest();
+		// done first, the driver checks it as soon as the last worker stops
+		if (finished)
+			doneLatch.countDown();
+		stopLatch.countDown();
+	}
+
+	private void endRequest() {
+		if (!requesting)
+			return;
+		requesting = false;
+		metrics.requestEnded(hostName, requestBytes, System.nanoTime() - requestAt);
+	}
+
+	private void closePart() {
+		if (Util.isNull(part))
+			return;
+		try {
+			part.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		part = null;
+	}
+
+	private void closeSocket() {
+		if (Util.isNull(socket))
+			return;
+		if (!Util.isNull(key))
+			key.cancel();
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		socket = null;
+		key = null;
+	}
+}
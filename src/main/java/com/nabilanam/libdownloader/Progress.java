@@ -0,0 +1,102 @@
+package com.nabilanam.libdownloader;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of a download taken by the progress dispatcher.
+ *
+ * @author nabil
+ */
+public final class Progress {
+
+	private final long downloaded;
+	private final long wireBytes;
+	private final long contentLength;
+	private final long bytesPerSecond;
+	private final List<Range> ranges;
+
+	Progress(long downloaded, long wireBytes, long contentLength, long bytesPerSecond, List<Range> ranges) {
+		this.downloaded = downloaded;
+		this.wireBytes = wireBytes;
+		this.contentLength = contentLength;
+		this.bytesPerSecond = bytesPerSecond;
+		this.ranges = Collections.unmodifiableList(ranges);
+	}
+
+	/**
+	 * @return bytes downloaded since the download was started
+	 */
+	public long getDownloaded() {
+		return downloaded;
+	}
+
+	/**
+	 * @return bytes received over the network since the download was started, fewer than downloaded
+	 * if the responses are compressed
+	 */
+	public long getWireBytes() {
+		return wireBytes;
+	}
+
+	/**
+	 * @return content length, -1 if unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * @return download rate since the previous snapshot
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return progress of every range of the file, empty if the content length is unknown
+	 */
+	public List<Range> getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * A byte range of the file and how far it is written.
+	 */
+	public static final class Range {
+		private final long begin;
+		private final long end;
+		private final long position;
+
+		Range(long begin, long end, long position) {
+			this.begin = begin;
+			this.end = end;
+			this.position = position;
+		}
+
+		/**
+		 * @return first byte of the range
+		 */
+		public long getBegin() {
+			return begin;
+		}
+
+		/**
+		 * @return last byte of the range
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return next byte to be written
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		public boolean isComplete() {
+			return position > end;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the bytes per second of every download it is given to, see
+ * {@link Download.Builder#rateLimiter(RateLimiter)}. Workers take a whole buffer worth of tokens at once
+ * with a single compare-and-set, no lock is held. A full bucket holds a tenth of a second of bytes.
+ *
+ * @author nabil
+ */
+public final class RateLimiter {
+
+	private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+	private volatile long bytesPerSecond;
+
+	/**
+	 * @param bytesPerSecond rate, 0 for unlimited
+	 */
+	public RateLimiter(long bytesPerSecond) {
+		setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Takes effect for the next buffer of every worker.
+	 *
+	 * @param bytesPerSecond rate, 0 for unlimited
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Takes tokens for bytes already read. The bucket may go into debt, later callers then wait longer.
+	 *
+	 * @return nanoseconds to wait before reading on, 0 if the bucket had enough tokens
+	 */
+	long reserve(long bytes) {
+		long rate = bytesPerSecond;
+		if (rate <= 0)
+			return 0;
+		long cost = bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+		while (true) {
+			long now = System.nanoTime();
+			long previous = theoreticalArrival.get();
+			long next = (previous - now < 0 ? now : previous) + cost;
+			if (theoreticalArrival.compareAndSet(previous, next))
+				return Math.max(0, next - now - BURST_NANOS);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often and after how long a failed request is reissued. The delay doubles with every attempt up to
+ * the maximum, and half of it is random so that connections dropped together do not retry together.
+ *
+ * @author nabil
+ */
+final class RetryPolicy {
+
+	static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+	private final int retries;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+
+	RetryPolicy(int retries, long initialDelayMillis, long maxDelayMillis) {
+		this.retries = retries;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+	}
+
+	int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Connection errors and transient statuses are retried, other client errors and a full in-memory
+	 * target are not.
+	 *
+	 * @param attempt number of retries already made since the last progress
+	 */
+	boolean shouldRetry(IOException e, int attempt) {
+		if (attempt >= retries || e instanceof MemoryChannel.LimitExceededException)
+			return false;
+		return !(e instanceof HttpStatusException) || isTransient(((HttpStatusException) e).getStatus());
+	}
+
+	/**
+	 * @return true for server errors, Request Timeout and Too Many Requests
+	 */
+	static boolean isTransient(int status) {
+		return status >= 500 || status == 408 || status == 429;
+	}
+
+	/**
+	 * @param attempt number of retries already made since the last progress
+	 * @return nanoseconds to wait before the next attempt
+	 */
+	long delayNanos(int attempt) {
+		long delay = initialDelayMillis << Math.min(attempt, 30);
+		if (delay <= 0 || delay > maxDelayMillis)
+			delay = maxDelayMillis;
+		long half = TimeUnit.MILLISECONDS.toNanos(delay) / 2;
+		return half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+}
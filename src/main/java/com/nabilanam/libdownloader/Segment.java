@@ -0,0 +1,82 @@
+package com.nabilanam.libdownloader;
+
+import java.nio.file.Path;
+
+/**
+ * A byte range of the remote file. Position is the next byte to be written.
+ *
+ * @author nabil
+ */
+final class Segment {
+
+	private final long begin;
+	private volatile long end;
+	private volatile long position;
+	private final Path part;
+
+	Segment(long begin, long end) {
+		this(begin, end, begin);
+	}
+
+	Segment(long begin, long end, long position) {
+		this(begin, end, position, null);
+	}
+
+	/**
+	 * @param part temporary file the segment is appended to, null if written into the target file
+	 */
+	Segment(long begin, long end, long position, Path part) {
+		this.begin = begin;
+		this.end = end;
+		this.position = position;
+		this.part = part;
+	}
+
+	long getBegin() {
+		return begin;
+	}
+
+	long getEnd() {
+		return end;
+	}
+
+	Path getPart() {
+		return part;
+	}
+
+	long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Only the worker owning this segment advances it.
+	 */
+	void advance(long bytes) {
+		position += bytes;
+	}
+
+	long getRemaining() {
+		return Math.max(0, end - position + 1);
+	}
+
+	boolean isComplete() {
+		return position > end;
+	}
+
+	/**
+	 * Gives away the upper half of the remaining range. The owning worker keeps writing the lower half.
+	 * Halves smaller than minSize are not split, which also keeps an in-flight write below the split point
+	 * as long as minSize is not smaller than the worker buffer.
+	 *
+	 * @return the upper half or null if too small to split
+	 */
+	synchronized Segment split(long minSize) {
+		long remaining = getRemaining();
+		if (remaining < 2 * minSize)
+			return null;
+		long middle = position + remaining / 2;
+		Segment tail = new Segment(middle, end);
+		end = middle - 1;
+		return tail;
+	}
+}
@@ -0,0 +1,101 @@
+package com.nabilanam.libdownloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hands out segments to idle workers. When no segment is pending, the largest in-flight segment is split
+ * and its upper half is handed out instead, so no worker idles while another has a long tail left.
+ *
+ * @author nabil
+ */
+final class SegmentScheduler {
+
+	private final List<Segment> segments;
+	private final Deque<Segment> pending;
+	private final Set<Segment> active;
+	private final long minSplitSize;
+
+	/**
+	 * @param minSplitSize smallest half a segment is split into, 0 never splits
+	 */
+	SegmentScheduler(List<Segment> segments, long minSplitSize) {
+		this.segments = new ArrayList<>(segments);
+		this.pending = new ArrayDeque<>();
+		this.active = new LinkedHashSet<>();
+		this.minSplitSize = minSplitSize;
+		for (Segment segment : segments) {
+			if (!segment.isComplete())
+				pending.add(segment);
+		}
+	}
+
+	/**
+	 * @param finished segment the calling worker is done with, may be null
+	 * @return next segment to download or null if there is nothing left worth splitting
+	 */
+	synchronized Segment next(Segment finished) {
+		if (!Util.isNull(finished))
+			active.remove(finished);
+		Segment segment = pending.poll();
+		if (Util.isNull(segment))
+			segment = steal();
+		if (!Util.isNull(segment))
+			active.add(segment);
+		return segment;
+	}
+
+	/**
+	 * Takes back the unfinished segment of a worker that gives up its connection, the next worker
+	 * continues it from its position.
+	 */
+	synchronized void release(Segment segment) {
+		active.remove(segment);
+		if (!segment.isComplete())
+			pending.addFirst(segment);
+	}
+
+	private Segment steal() {
+		Segment largest = null;
+		for (Segment segment : active) {
+			if (Util.isNull(largest) || segment.getRemaining() > largest.getRemaining())
+				largest = segment;
+		}
+		if (Util.isNull(largest) || minSplitSize <= 0)
+			return null;
+		Segment tail = largest.split(minSplitSize);
+		if (!Util.isNull(tail))
+			segments.add(tail);
+		return tail;
+	}
+
+	/**
+	 * @return snapshot of every segment, including split ones
+	 */
+	synchronized List<Segment> getSegments() {
+		return new ArrayList<>(segments);
+	}
+
+	/**
+	 * @return copies of every segment, positions as they are at the time of the call
+	 */
+	synchronized List<Segment> snapshot() {
+		List<Segment> copies = new ArrayList<>(segments.size());
+		for (Segment segment : segments) {
+			copies.add(new Segment(segment.getBegin(), segment.getEnd(), segment.getPosition(), segment.getPart()));
+		}
+		return copies;
+	}
+
+	synchronized boolean isComplete() {
+		for (Segment segment : segments) {
+			if (!segment.isComplete())
+				return false;
+		}
+		return true;
+	}
+}
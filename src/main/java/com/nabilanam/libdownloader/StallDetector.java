@@ -0,0 +1,68 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of one connection in fixed windows. A request that received less than the minimum
+ * rate over a whole window is stalled. Only the connection records progress, only the watchdog checks it.
+ * Time spent waiting for a rate limiter does not count.
+ *
+ * @author nabil
+ */
+final class StallDetector {
+
+	private final long minBytes;
+	private final long windowNanos;
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile long windowStart;
+	private volatile boolean active;
+
+	/**
+	 * @param minBytesPerSecond slowest rate that is not a stall
+	 * @param windowMillis      time the rate has to stay below the minimum
+	 */
+	StallDetector(long minBytesPerSecond, long windowMillis) {
+		this.minBytes = minBytesPerSecond * windowMillis / 1000;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+	}
+
+	/**
+	 * A request is sent, the first window starts.
+	 */
+	void start() {
+		bytes.set(0);
+		windowStart = System.nanoTime();
+		active = true;
+	}
+
+	/**
+	 * The request is done, nothing is checked until the next one.
+	 */
+	void stop() {
+		active = false;
+	}
+
+	void progress(long received) {
+		bytes.addAndGet(received);
+	}
+
+	/**
+	 * The window is moved by the time the connection waited for a rate limiter.
+	 */
+	void paused(long nanos) {
+		windowStart += nanos;
+	}
+
+	/**
+	 * Ends the window if it is over.
+	 *
+	 * @return true if the window that just ended received too little
+	 */
+	boolean isStalled(long now) {
+		if (!active || now - windowStart < windowNanos)
+			return false;
+		windowStart = now;
+		return bytes.getAndSet(0) < minBytes;
+	}
+}
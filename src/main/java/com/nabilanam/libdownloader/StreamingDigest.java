@@ -0,0 +1,212 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Digest of the file computed in order while it is downloaded. A single connection feeds every buffer it
+ * writes. In a segmented download the worker writing right after the digested prefix feeds its buffers
+ * too, the driver catches up with bytes that were completed out of order while they are still in the
+ * page cache, and only what was already on disk before a resume is read back from the disk.
+ * Workers and the driver share it, its state is only touched under its lock.
+ * Any MessageDigest algorithm like SHA-256 or MD5 is supported, as well as CRC32 and, on Java 9+, CRC32C.
+ *
+ * @author nabil
+ */
+final class StreamingDigest {
+
+	private static final int CHUNK = 64 * 1024;
+
+	private final String algorithm;
+	private MessageDigest messageDigest;
+	private Checksum checksum;
+	private byte[] scratch;
+	private long position;
+
+	/**
+	 * @throws IllegalArgumentException if the algorithm is not available
+	 */
+	StreamingDigest(String algorithm) {
+		this.algorithm = algorithm.toUpperCase(Locale.ROOT);
+		reset();
+	}
+
+	/**
+	 * Starts over from the first byte.
+	 */
+	synchronized void reset() {
+		position = 0;
+		if (algorithm.startsWith("CRC32")) {
+			checksum = newChecksum(algorithm);
+			scratch = new byte[CHUNK];
+			return;
+		}
+		try {
+			messageDigest = MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm, e);
+		}
+	}
+
+	private static Checksum newChecksum(String algorithm) {
+		if (algorithm.equals("CRC32"))
+			return new CRC32();
+		if (!algorithm.equals("CRC32C"))
+			throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm);
+		try {
+			return (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("CRC32C needs Java 9 or later", e);
+		}
+	}
+
+	String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return number of leading bytes of the file digested so far
+	 */
+	synchronized long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Digests the remaining bytes of the buffer, which must continue right at the current position.
+	 * The buffer position is left unchanged.
+	 */
+	synchronized void update(ByteBuffer buffer) {
+		ByteBuffer bytes = buffer.duplicate();
+		position += bytes.remaining();
+		if (!Util.isNull(messageDigest)) {
+			messageDigest.update(bytes);
+			return;
+		}
+		while (bytes.hasRemaining()) {
+			int length = Math.min(bytes.remaining(), scratch.length);
+			bytes.get(scratch, 0, length);
+			checksum.update(scratch, 0, length);
+		}
+	}
+
+	/**
+	 * Digests the part of the buffer past the current position if the buffer reaches it, otherwise the
+	 * bytes are left to be caught up with later. The buffer position is left unchanged.
+	 *
+	 * @param offset byte of the download the buffer starts with
+	 */
+	synchronized void update(long offset, ByteBuffer buffer) {
+		long end = offset + buffer.remaining();
+		if (offset > position || end <= position)
+			return;
+		ByteBuffer rest = buffer.duplicate();
+		rest.position(rest.position() + (int) (position - offset));
+		update(rest);
+	}
+
+	/**
+	 * Reads and digests the file from the current position up to end.
+	 *
+	 * @param end first byte not to digest
+	 */
+	void catchUp(FileChannel file, long end) throws IOException {
+		catchUp(file, 0, end);
+	}
+
+	/**
+	 * @param offset byte of the download the file starts with, a part file starts at its segment
+	 * @param end    first byte of the download not to digest
+	 */
+	void catchUp(FileChannel file, long offset, long end) throws IOException {
+		if (end <= getPosition())
+			return;
+		ByteBuffer buffer = BufferPool.acquire(CHUNK);
+		try {
+			long from;
+			// read without the lock, a chunk a worker has fed meanwhile is dropped
+			while ((from = getPosition()) < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - from));
+				int read = file.read(buffer, from - offset);
+				if (read < 0)
+					throw new IOException("File ends at " + from + " before " + end);
+				buffer.flip();
+				update(from, buffer);
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	void catchUp(Path path, long offset, long end) throws IOException {
+		if (end <= getPosition() || !Files.exists(path))
+			return;
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			catchUp(file, offset, end);
+		}
+	}
+
+	/**
+	 * @return lower case hex of the digest of every byte seen, the state is reset afterwards
+	 */
+	synchronized String finish() {
+		String hex;
+		if (!Util.isNull(messageDigest)) {
+			hex = toHex(messageDigest.digest());
+		} else {
+			hex = String.format("%08x", checksum.getValue());
+		}
+		reset();
+		return hex;
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Expected digest announced by the server, in a Digest or Repr-Digest header like
+	 * {@code sha-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=} or, for MD5, a Content-MD5 header.
+	 *
+	 * @return lower case hex or null if the server announced none for the algorithm
+	 */
+	static String fromHeaders(String algorithm, String digest, String contentMd5) {
+		String name = algorithm.toUpperCase(Locale.ROOT);
+		if (!Util.isStringNullOrEmpty(digest)) {
+			for (String entry : digest.split(",")) {
+				int equals = entry.indexOf('=');
+				if (equals < 0 || !entry.substring(0, equals).trim().equalsIgnoreCase(name))
+					continue;
+				String value = entry.substring(equals + 1).trim().replace(":", "");
+				String hex = decodeBase64(value);
+				if (!Util.isNull(hex))
+					return hex;
+			}
+		}
+		if (name.equals("MD5") && !Util.isStringNullOrEmpty(contentMd5))
+			return decodeBase64(contentMd5.trim());
+		return null;
+	}
+
+	private static String decodeBase64(String value) {
+		try {
+			return toHex(Base64.getDecoder().decode(value));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the threads of a download. Virtual threads need Java 21, where this class is replaced
+ * by the one in META-INF/versions/21 of the jar. Here they fall back to platform threads.
+ *
+ * @author nabil
+ */
+final class Threads {
+
+	private Threads() {
+	}
+
+	static boolean isVirtualSupported() {
+		return false;
+	}
+
+	static ExecutorService newExecutor(boolean virtual) {
+		return Executors.newCachedThreadPool();
+	}
+
+	static Thread newThread(boolean virtual, Runnable runnable) {
+		return new Thread(runnable);
+	}
+}
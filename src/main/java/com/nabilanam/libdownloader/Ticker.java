@@ -0,0 +1,45 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One daemon thread shared by all downloads for periodic work like listener dispatch and delayed retries.
+ * Tasks must be short, they delay each other.
+ *
+ * @author nabil
+ */
+final class Ticker {
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "libdownloader-ticker");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Ticker() {
+	}
+
+	static ScheduledFuture<?> schedule(Runnable task, long periodMillis) {
+		return TIMER.scheduleAtFixedRate(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// an exception would cancel the task for good
+				e.printStackTrace();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	static ScheduledFuture<?> delay(Runnable task, long nanos) {
+		return TIMER.schedule(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}, nanos, TimeUnit.NANOSECONDS);
+	}
+}
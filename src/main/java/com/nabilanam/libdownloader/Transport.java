@@ -0,0 +1,119 @@
+package com.nabilanam.libdownloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the probe and range requests of a download. The default opens one HttpURLConnection per request
+ * and leaves pooling to the JDK keep-alive cache.
+ *
+ * @author nabil
+ */
+public interface Transport {
+
+	/**
+	 * Redirects are followed.
+	 *
+	 * @param method  GET or HEAD.
+	 * @param url     remote file.
+	 * @param headers request headers.
+	 * @return response with its headers received and body unread
+	 * @throws IOException if the request could not be sent
+	 */
+	Response send(String method, URL url, Map<String, String> headers) throws IOException;
+
+	/**
+	 * @return transport opening a HttpURLConnection per request, without timeouts
+	 */
+	static Transport urlConnection() {
+		return urlConnection(0, 0);
+	}
+
+	/**
+	 * @param connectTimeoutMillis longest wait for a connection, 0 for none
+	 * @param readTimeoutMillis    longest wait for the next bytes of a response, 0 for none
+	 * @return transport opening a HttpURLConnection per request
+	 */
+	static Transport urlConnection(int connectTimeoutMillis, int readTimeoutMillis) {
+		return new UrlConnectionTransport(connectTimeoutMillis, readTimeoutMillis);
+	}
+
+	/**
+	 * Transport on java.net.http.HttpClient, which multiplexes all requests to a HTTP/2 server over one
+	 * connection. Needs Java 11 or later, falls back to {@link #urlConnection()} on older runtimes.
+	 *
+	 * @return shareable transport with its own connection pool, without timeouts
+	 */
+	static Transport httpClient() {
+		return httpClient(0, 0);
+	}
+
+	/**
+	 * HttpClient has no timeout between the bytes of a body, the read timeout is applied to the response
+	 * head. A body that stops is caught by the stall detection of the download.
+	 *
+	 * @param connectTimeoutMillis longest wait for a connection, 0 for none
+	 * @param readTimeoutMillis    longest wait for the head of a response, 0 for none
+	 * @return shareable transport with its own connection pool
+	 */
+	static Transport httpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+		try {
+			return (Transport) Class.forName("com.nabilanam.libdownloader.HttpClientTransport")
+					.getDeclaredConstructor(int.class, int.class)
+					.newInstance(connectTimeoutMillis, readTimeoutMillis);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return urlConnection(connectTimeoutMillis, readTimeoutMillis);
+		}
+	}
+
+	interface Response extends Closeable {
+
+		int getStatus();
+
+		/**
+		 * @return url the response came from after redirects
+		 */
+		URL getUrl();
+
+		/**
+		 * @return first value of the header or null if absent
+		 */
+		String getHeader(String name);
+
+		/**
+		 * @return length of the body or -1 if unknown
+		 */
+		long getContentLength();
+
+		InputStream getBody() throws IOException;
+
+		/**
+		 * @return nanoseconds taken to get a connection for the request, -1 if the transport cannot tell
+		 */
+		default long getConnectNanos() {
+			return -1;
+		}
+
+		/**
+		 * Drops the connection, the body may be left unread.
+		 */
+		void abort();
+
+		/**
+		 * Drops the connection from another thread, so that a read blocked on it returns. Transports that
+		 * cannot do this safely do nothing, the reader then stops after its next read or at the read timeout.
+		 */
+		default void abortAsync() {
+			abort();
+		}
+
+		/**
+		 * Gives the connection back for reuse once the body has been read to the end.
+		 */
+		@Override
+		void close() throws IOException;
+	}
+}
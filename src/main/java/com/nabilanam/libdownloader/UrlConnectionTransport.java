@@ -0,0 +1,114 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * @author nabil
+ */
+final class UrlConnectionTransport implements Transport {
+
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	UrlConnectionTransport(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public Response send(String method, URL url, Map<String, String> headers) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) url.openConnection();
+		con.setConnectTimeout(connectTimeout);
+		con.setReadTimeout(readTimeout);
+		return send(con, method, headers);
+	}
+
+	/**
+	 * Sends the request on a connection opened by the caller.
+	 */
+	static Response send(HttpURLConnection con, String method, Map<String, String> headers) throws IOException {
+		try {
+			con.setInstanceFollowRedirects(true);
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				con.setRequestProperty(header.getKey(), header.getValue());
+			}
+			con.setRequestMethod(method);
+			long start = System.nanoTime();
+			con.connect();
+			long connectNanos = System.nanoTime() - start;
+			return new ConnectionResponse(con, con.getResponseCode(), connectNanos);
+		} catch (IOException e) {
+			con.disconnect();
+			throw e;
+		}
+	}
+
+	private static final class ConnectionResponse implements Response {
+		private final HttpURLConnection con;
+		private final int status;
+		private final long connectNanos;
+		private InputStream body;
+
+		private ConnectionResponse(HttpURLConnection con, int status, long connectNanos) {
+			this.con = con;
+			this.status = status;
+			this.connectNanos = connectNanos;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public URL getUrl() {
+			return con.getURL();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return con.getHeaderField(name);
+		}
+
+		@Override
+		public long getContentLength() {
+			return con.getContentLengthLong();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			if (Util.isNull(body))
+				body = con.getInputStream();
+			return body;
+		}
+
+		@Override
+		public long getConnectNanos() {
+			return connectNanos;
+		}
+
+		@Override
+		public void abort() {
+			con.disconnect();
+		}
+
+		/**
+		 * Disconnecting waits for a read in progress, and a keep-alive body with bytes left is handed to the
+		 * JDK's cleaner, which holds the stream while it drains it. A reader still inside the stream would
+		 * then wait for the rest of a trickling body, so the reader is left to drop it itself.
+		 */
+		@Override
+		public void abortAsync() {
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!Util.isNull(body))
+				body.close();
+		}
+	}
+}
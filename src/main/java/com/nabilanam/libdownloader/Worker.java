@@ -1,19 +1,37 @@
 package com.nabilanam.libdownloader;
 
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author nabil
  */
 final class Worker implements Runnable {
 
+	private static final long MAX_NAP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final ExecutorService ABORTS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "libdownloader-abort");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	private final URL url;
 	private final long end;
 	private final long begin;
@@ -23,9 +41,38 @@ final class Worker implements Runnable {
 	private final CountDownLatch stopLatch;
 	private final Download download;
 	private final boolean append;
+	private final FileChannel channel;
+	private final SegmentScheduler scheduler;
+	private final int bufferSize;
+	private final long checkpointBytes;
+	private final long checkpointNanos;
+	private final String validator;
+	private final Transport transport;
+	private final Mirrors mirrors;
+	private final StreamingDigest digest;
+	private final RetryPolicy retry;
+	private final StallDetector stall;
+	private final DownloadMetrics metrics;
+	private final boolean compressed;
+	private final long length;
+	private volatile Transport.Response current;
+	private volatile boolean stalled;
+	private IOException failure;
+	private ContentEncoding.Counted wire;
+	private String host;
+	private long requestAt;
+	private long requestBytes;
+	private long offset;
+	private long sinceCheckpoint;
+	private long checkpointAt;
+	private boolean retired;
 
 	private Worker(URL url, String userAgent, long begin, long end, Path filePath,
-	               CountDownLatch doneLatch, CountDownLatch stopLatch, Download download, boolean append) {
+	               CountDownLatch doneLatch, CountDownLatch stopLatch, Download download, boolean append,
+	               FileChannel channel, SegmentScheduler scheduler,
+	               int bufferSize, long checkpointBytes, long checkpointMillis, String validator,
+	               Transport transport, Mirrors mirrors, StreamingDigest digest, RetryPolicy retry,
+	               StallDetector stall, DownloadMetrics metrics, boolean compressed, long length) {
 		this.url = url;
 		this.end = end;
 		this.begin = begin;
@@ -35,69 +82,539 @@ final class Worker implements Runnable {
 		this.stopLatch = stopLatch;
 		this.download = download;
 		this.append = append;
+		this.channel = channel;
+		this.scheduler = scheduler;
+		this.bufferSize = bufferSize;
+		this.checkpointBytes = checkpointBytes;
+		this.checkpointNanos = TimeUnit.MILLISECONDS.toNanos(checkpointMillis);
+		this.validator = validator;
+		this.transport = Util.isNull(transport) ? Transport.urlConnection() : transport;
+		this.mirrors = mirrors;
+		this.digest = digest;
+		this.retry = Util.isNull(retry) ? RetryPolicy.NONE : retry;
+		this.offset = begin;
+		this.stall = stall;
+		if (Util.isNull(metrics))
+			metrics = Util.isNull(download) ? DownloadMetrics.NONE : download.getMetrics();
+		this.metrics = metrics;
+		this.compressed = compressed;
+		this.length = length;
+		this.host = url.getHost();
 	}
 
+	/**
+	 * The latches are counted down however the worker ends, so the driver never waits for it forever.
+	 */
 	@Override
 	public void run() {
-		HttpURLConnection con = null;
+		checkpointAt = System.nanoTime() + checkpointNanos;
+		boolean finished = false;
 		try {
-			con = (HttpURLConnection) url.openConnection();
-			con.setRequestProperty("User-Agent", userAgent);
-			con.setInstanceFollowRedirects(true);
-			if (begin != end) {
-				String range = getRange();
-				con.setRequestProperty("Range", range);
-			}
-			con.setRequestMethod("GET");
+			finished = isSegmented() ? fetchSegments() : fetchFile();
+		} catch (IOException e) {
+			// retries are used up
+			fail(e);
+		} catch (RuntimeException | Error e) {
+			// a bug, a failing listener or a missing method fails the download like an i/o error
+			fail(new IOException("Worker failed: " + e, e));
+		} finally {
+			// done first, the driver checks it as soon as the last worker stops
+			if (finished && !Util.isNull(doneLatch))
+				doneLatch.countDown();
+			if (!Util.isNull(stopLatch))
+				stopLatch.countDown();
+		}
+	}
+
+	/**
+	 * The whole download stops with the error unless it is stopping anyway.
+	 */
+	private void fail(IOException e) {
+		failure = e;
+		if (!Util.isNull(download) && !isStopped())
+			download.failed(e);
+	}
 
-			int responseCode;
+	/**
+	 * A dropped connection is picked up again from the last written byte.
+	 *
+	 * @return false if stopped before end of stream
+	 */
+	private boolean fetchFile() throws IOException {
+		int attempt = 0;
+		while (true) {
+			long before = offset;
 			try {
-				responseCode = con.getResponseCode();
-				con.connect();
-			} catch (IOException ex) {
-				con.disconnect();
-				return;
+				return fetchStream();
+			} catch (IOException e) {
+				if (offset > before)
+					attempt = 0;
+				backoff(e, attempt++);
+				if (isStopped())
+					return false;
 			}
+		}
+	}
 
+	/**
+	 * A compressed worker asks for an encoded body only from the first byte. Ranges count the bytes of the
+	 * decoded file, so a resumed request is sent without Accept-Encoding and gets the rest as it is.
+	 *
+	 * @return false if stopped before end of stream
+	 */
+	private boolean fetchStream() throws IOException {
+		Map<String, String> headers = headers();
+		if (offset != end) {
+			headers.put("Range", getRange());
+			setIfRange(headers);
+		} else if (compressed) {
+			headers.put("Accept-Encoding", ContentEncoding.accepted());
+		}
+		Transport.Response response = send(url, headers);
+		boolean finished = false;
+		try {
+			int responseCode = response.getStatus();
 			if (isDownloadable(responseCode)) {
-				try (InputStream inputStream = con.getInputStream();
-				     OutputStream outputStream = new FileOutputStream(filePath.toFile(), append)) {
-					byte[] buffer = new byte[4096];
-					int bytesRead;
-					while ((bytesRead = inputStream.read(buffer, 0, buffer.length)) != -1) {
-						if (Thread.currentThread().isInterrupted()) {
-							con.disconnect();
-							outputStream.flush();
-							inputStream.close();
-							outputStream.close();
-							if (!Util.isNull(stopLatch))
-								stopLatch.countDown();
-							return;
-						}
-						outputStream.write(buffer, 0, bytesRead);
-						outputStream.flush();
-						if (!Util.isNull(download))
-							download.downloaded(bytesRead);
-					}
+				boolean restart = isResumeRejected(responseCode);
+				if (restart && !Util.isNull(download))
+					download.resumeRejected();
+				boolean appending = (append || offset > begin) && !restart;
+				if (restart)
+					offset = 0;
+				long from = offset;
+				String encoding = compressed ? response.getHeader("Content-Encoding") : null;
+				wire = ContentEncoding.isIdentity(encoding) ? null : new ContentEncoding.Counted(response.getBody());
+				try (InputStream inputStream = Util.isNull(wire) ? response.getBody() : ContentEncoding.decode(encoding, wire);
+				     FileChannel file = Util.isNull(channel) ? FileChannel.open(filePath, StandardOpenOption.CREATE,
+						     StandardOpenOption.WRITE, appending ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING) : null) {
+					// an in-memory target is continued at the offset like an appended file
+					if (Util.isNull(file))
+						channel.truncate(offset).position(offset);
+					finished = transfer(inputStream, Util.isNull(file) ? channel : file, null);
 				}
+				// the length of an encoded body is that of the bytes on the wire
+				long length = response.getContentLength();
+				long received = Util.isNull(wire) ? offset - from : wire.getCount();
+				if (finished && length >= 0 && received < length) {
+					finished = false;
+					throw new EOFException("Response ended after " + received + " of " + length + " bytes");
+				}
+				return finished;
 			}
-			con.disconnect();
-			if (!Util.isNull(stopLatch))
-				stopLatch.countDown();
-			if (!Util.isNull(doneLatch))
-				doneLatch.countDown();
+			// nothing left to download, the file is already complete
+			if (isPastEnd(responseCode, response, headers))
+				return true;
+			throw new HttpStatusException(responseCode, "Unexpected response code " + responseCode + " for " + url);
+		} finally {
+			done(response, finished);
+		}
+	}
+
+	/**
+	 * A 416 only means the file is complete if the range starts at its end. The length is taken from the
+	 * Content-Range of the response, else from the probe.
+	 */
+	private boolean isPastEnd(int responseCode, Transport.Response response, Map<String, String> headers) {
+		if (responseCode != 416 || !headers.containsKey("Range"))
+			return false;
+		long total = HttpInfo.getTotalLength(response.getHeader("Content-Range"));
+		if (total < 0)
+			total = length;
+		return total >= 0 && offset >= total;
+	}
+
+	/**
+	 * Keeps taking segments from the scheduler until there is nothing left. A worker giving up its
+	 * connection hands its segment back and waits for a new connection.
+	 *
+	 * @return false if stopped before the scheduler ran out of segments
+	 */
+	private boolean fetchSegments() throws IOException {
+		if (!acquireConnection())
+			return !isStopped();
+		Segment segment = scheduler.next(null);
+		int attempt = 0;
+		while (!Util.isNull(segment)) {
+			long before = segment.getPosition();
+			boolean fetched;
+			try {
+				fetched = fetchMirrored(segment);
+			} catch (IOException e) {
+				if (segment.getPosition() > before)
+					attempt = 0;
+				backoff(e, attempt++);
+				if (isStopped())
+					return false;
+				continue;
+			}
+			attempt = 0;
+			if (!fetched) {
+				if (!retired)
+					return false;
+				retired = false;
+				scheduler.release(segment);
+				if (!acquireConnection())
+					return !isStopped();
+				segment = scheduler.next(null);
+				continue;
+			}
+			segment = scheduler.next(segment);
+		}
+		if (!Util.isNull(download))
+			download.releaseConnection();
+		return true;
+	}
+
+	/**
+	 * Waits before the next attempt, in short naps so a stopped download does not wait out the delay.
+	 *
+	 * @param attempt retries made since the last progress
+	 * @throws IOException the error itself if it is not retried
+	 */
+	private void backoff(IOException e, int attempt) throws IOException {
+		if (stalled) {
+			stalled = false;
+			e = new SocketTimeoutException("Stalled below the minimum rate, " + e.getMessage());
+		}
+		if (isStopped() || !retry.shouldRetry(e, attempt))
+			throw e;
+		metrics.retried(host, e);
+		nap(retry.delayNanos(attempt));
+	}
+
+	/**
+	 * @return nanoseconds actually slept
+	 */
+	private long nap(long nanos) {
+		long start = System.nanoTime();
+		long deadline = start + nanos;
+		long wait;
+		while ((wait = deadline - System.nanoTime()) > 0 && !isStopped()) {
+			LockSupport.parkNanos(Math.min(wait, MAX_NAP_NANOS));
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Adaptive downloads limit how many workers hold a connection, the others wait here.
+	 */
+	private boolean acquireConnection() {
+		return Util.isNull(download) || download.acquireConnection(scheduler);
+	}
+
+	/**
+	 * Without mirrors every range comes from the url. Otherwise each range goes to the mirror picked by
+	 * throughput, and the rest of a range a mirror failed on is fetched from the remaining ones.
+	 * An error of the last mirror left is thrown to be retried.
+	 *
+	 * @return false if stopped before the segment is complete
+	 */
+	private boolean fetchMirrored(Segment segment) throws IOException {
+		if (Util.isNull(mirrors))
+			return fetchSegment(segment, url);
+		while (true) {
+			Mirrors.Mirror mirror = mirrors.acquire();
+			long position = segment.getPosition();
+			long start = System.nanoTime();
+			try {
+				boolean finished = fetchSegment(segment, mirror.getUrl());
+				mirrors.release(mirror, segment.getPosition() - position, System.nanoTime() - start);
+				return finished;
+			} catch (IOException e) {
+				if (!mirrors.fail(mirror) || isStopped())
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * The connection is only dropped when the body is left unread, otherwise it goes back to the keep-alive
+	 * cache for the next segment.
+	 *
+	 * @return false if stopped before the segment is complete
+	 */
+	private boolean fetchSegment(Segment segment, URL url) throws IOException {
+		Map<String, String> headers = headers();
+		headers.put("Range", getSegmentRange(segment));
+		setIfRange(headers);
+		long requestedEnd = segment.getEnd();
+		Transport.Response response = send(url, headers);
+		boolean finished = false;
+		try {
+			int responseCode = response.getStatus();
+			if (responseCode == HttpURLConnection.HTTP_OK && !Util.isNull(validator)) {
+				if (!Util.isNull(download))
+					download.remoteChanged();
+				return false;
+			}
+			if (isOverloaded(responseCode) && !Util.isNull(download) && download.isTuned()) {
+				download.overloaded();
+				retired = true;
+				return false;
+			}
+			if (!isSegmentDownloadable(responseCode))
+				throw new HttpStatusException(responseCode, "Unexpected response code " + responseCode + " for " + getSegmentRange(segment));
+			try (InputStream inputStream = response.getBody();
+			     FileChannel part = Util.isNull(channel) ? FileChannel.open(segment.getPart(),
+					     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) : null) {
+				finished = transfer(inputStream, Util.isNull(part) ? channel : part, segment);
+			}
+			return finished;
+		} finally {
+			done(response, finished && segment.getEnd() == requestedEnd);
+		}
+	}
+
+	/**
+	 * Sends the request, exposes the response to the stall watchdog and reports its latencies.
+	 */
+	private Transport.Response send(URL url, Map<String, String> headers) throws IOException {
+		host = url.getHost();
+		metrics.requestStarted(host);
+		requestAt = System.nanoTime();
+		requestBytes = 0;
+		if (!Util.isNull(stall))
+			stall.start();
+		try {
+			current = transport.send("GET", url, headers);
+			metrics.firstByte(host, System.nanoTime() - requestAt);
+			if (current.getConnectNanos() >= 0)
+				metrics.connected(host, current.getConnectNanos());
+			return current;
 		} catch (IOException e) {
-			if (!Util.isNull(con))
-				con.disconnect();
+			if (!Util.isNull(stall))
+				stall.stop();
+			metrics.requestEnded(host, 0, System.nanoTime() - requestAt);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param reusable true if the body was read to its end, otherwise the connection is dropped
+	 */
+	private void done(Transport.Response response, boolean reusable) throws IOException {
+		current = null;
+		metrics.requestEnded(host, requestBytes, System.nanoTime() - requestAt);
+		if (!Util.isNull(stall))
+			stall.stop();
+		if (reusable)
+			response.close();
+		else
+			response.abort();
+	}
+
+	/**
+	 * Called by the watchdog. A request below the minimum rate for a whole window is aborted, the worker
+	 * then requests the rest of the range on a fresh connection.
+	 */
+	void checkStall(long now) {
+		if (Util.isNull(stall) || !stall.isStalled(now))
+			return;
+		Transport.Response response = current;
+		if (!Util.isNull(response)) {
+			stalled = true;
+			abortLater(response);
+		}
+	}
+
+	/**
+	 * Called when the download is cancelled, a read blocked on the current response returns.
+	 */
+	void abort() {
+		Transport.Response response = current;
+		if (!Util.isNull(response))
+			abortLater(response);
+	}
+
+	/**
+	 * The caller is not held up by a transport that takes its time to drop the connection.
+	 */
+	private static void abortLater(Transport.Response response) {
+		ABORTS.execute(() -> {
+			try {
+				response.abortAsync();
+			} catch (RuntimeException e) {
+				// best effort, the worker still stops after its next read or at the read timeout
+			}
+		});
+	}
+
+	/**
+	 * Reads into a pooled direct buffer until it is full and writes it with a single call.
+	 * Without a segment the whole stream is appended to out, otherwise the segment is written at its
+	 * own offset of the shared channel or appended to its part file. The segment end may shrink meanwhile
+	 * when the scheduler splits it. A decoded stream is written as decoded, while the connection metrics
+	 * and the rate limit count the bytes on the wire.
+	 *
+	 * @return false if stopped before the end of stream or segment
+	 */
+	private boolean transfer(InputStream inputStream, FileChannel out, Segment segment) throws IOException {
+		ReadableByteChannel in = Channels.newChannel(inputStream);
+		ByteBuffer buffer = BufferPool.acquire(bufferSize);
+		try {
+			boolean eof = false;
+			while (!eof && (Util.isNull(segment) || !segment.isComplete())) {
+				buffer.clear();
+				if (!Util.isNull(segment))
+					buffer.limit((int) Math.min(buffer.capacity(), segment.getRemaining()));
+				eof = fill(in, buffer);
+				if (isStopped())
+					return false;
+				if (eof && !Util.isNull(segment) && buffer.position() < segment.getRemaining())
+					throw new EOFException("Response ended before " + getSegmentRange(segment));
+				if (!Util.isNull(segment) && !Util.isNull(download) && download.shouldRetire()) {
+					retired = true;
+					return false;
+				}
+				buffer.flip();
+				if (!Util.isNull(segment) && buffer.remaining() > segment.getRemaining())
+					buffer.limit((int) segment.getRemaining());
+				int length = buffer.remaining();
+				if (length == 0)
+					continue;
+				if (Util.isNull(segment) && !Util.isNull(digest))
+					digest.update(buffer);
+				write(out, buffer, segment);
+				long received = Util.isNull(segment) && !Util.isNull(wire) ? wire.take() : length;
+				requestBytes += received;
+				if (Util.isNull(segment))
+					offset += length;
+				if (!Util.isNull(download))
+					download.downloaded(length, received);
+				checkpoint(out, length);
+				throttle((int) received);
+			}
+			return Util.isNull(segment) || segment.isComplete();
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * A stalled or cancelled response is given up here as well, since aborting a short keep-alive response
+	 * only queues its connection for cleanup and leaves the bytes trickling in.
+	 *
+	 * @return true if end of stream is reached
+	 */
+	private boolean fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = in.read(buffer);
+			if (read == -1)
+				return true;
+			if (stalled || isStopped())
+				throw new SocketTimeoutException("Request aborted");
+			if (!Util.isNull(stall))
+				stall.progress(read);
 		}
+		return false;
+	}
+
+	private void write(FileChannel out, ByteBuffer buffer, Segment segment) throws IOException {
+		int length = buffer.remaining();
+		ByteBuffer written = Util.isNull(segment) || Util.isNull(digest) ? null : buffer.duplicate();
+		long at = Util.isNull(segment) ? -1 : segment.getPosition();
+		if (!Util.isNull(segment) && out == channel) {
+			long position = segment.getPosition();
+			while (buffer.hasRemaining()) {
+				position += out.write(buffer, position);
+			}
+		} else {
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+		}
+		if (!Util.isNull(segment))
+			segment.advance(length);
+		// the range right after the digested prefix is fed in order, the driver catches up with others
+		if (!Util.isNull(written))
+			digest.update(at, written);
+	}
+
+	/**
+	 * Nothing is forced to disk between checkpoints. A private file is forced here, a shared channel by the
+	 * download, which then saves its journal.
+	 */
+	private void checkpoint(FileChannel out, int length) throws IOException {
+		sinceCheckpoint += length;
+		long now = System.nanoTime();
+		if (sinceCheckpoint < checkpointBytes && now - checkpointAt < 0)
+			return;
+		sinceCheckpoint = 0;
+		checkpointAt = now + checkpointNanos;
+		if (out != channel)
+			out.force(false);
+		if (!Util.isNull(download))
+			download.checkpoint();
+	}
+
+	private Map<String, String> headers() {
+		Map<String, String> headers = new LinkedHashMap<>();
+		if (!Util.isNull(userAgent))
+			headers.put("User-Agent", userAgent);
+		return headers;
+	}
+
+	/**
+	 * Waits for the rate limiters in short naps, so a stopped download does not wait out a long debt.
+	 */
+	private void throttle(int length) {
+		if (Util.isNull(download))
+			return;
+		long delay = download.reserve(length);
+		if (delay <= 0)
+			return;
+		long slept = nap(delay);
+		if (!Util.isNull(stall))
+			stall.paused(slept);
+	}
+
+	private void setIfRange(Map<String, String> headers) {
+		if (!Util.isNull(validator))
+			headers.put("If-Range", validator);
+	}
+
+	/**
+	 * A full response to a ranged request with If-Range means the remote file has changed.
+	 */
+	boolean isResumeRejected(int responseCode) {
+		return responseCode == HttpURLConnection.HTTP_OK && offset > 0;
+	}
+
+	/**
+	 * @return error the worker gave up on, null if it finished or was stopped
+	 */
+	IOException getFailure() {
+		return failure;
 	}
 
+	/**
+	 * @return end of the bytes written by a single stream worker
+	 */
+	long getOffset() {
+		return offset;
+	}
+
+	private boolean isStopped() {
+		return Thread.currentThread().isInterrupted() || (!Util.isNull(download) && download.isStopping());
+	}
+
+	private boolean isSegmented() {
+		return !Util.isNull(scheduler);
+	}
+
+	String getSegmentRange(Segment segment) {
+		return "bytes=" + segment.getPosition() + "-" + segment.getEnd();
+	}
+
+	/**
+	 * Starts at the first byte not written yet, which is begin until something is written.
+	 */
 	String getRange() {
 		String range = "";
-		if (begin < end) {
-			range = "bytes=" + begin + "-" + end;
-		} else if (begin > end) {
-			range = "bytes=" + begin + "-";
+		if (offset < end) {
+			range = "bytes=" + offset + "-" + end;
+		} else if (offset > end) {
+			range = "bytes=" + offset + "-";
 		}
 		return range;
 	}
@@ -107,6 +624,20 @@ final class Worker implements Runnable {
 				|| responseCode == HttpURLConnection.HTTP_PARTIAL;
 	}
 
+	/**
+	 * Too Many Requests or Service Unavailable, an adaptive download then uses fewer connections.
+	 */
+	boolean isOverloaded(int responseCode) {
+		return responseCode == 429 || responseCode == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+
+	/**
+	 * A full response would be written as the segment, so only partial content is accepted.
+	 */
+	boolean isSegmentDownloadable(int responseCode) {
+		return responseCode == HttpURLConnection.HTTP_PARTIAL;
+	}
+
 	static class Builder {
 		private URL url;
 		private long end;
@@ -117,6 +648,21 @@ final class Worker implements Runnable {
 		private CountDownLatch stopLatch;
 		private Download download;
 		private boolean append = true;
+		private FileChannel channel;
+		private SegmentScheduler scheduler;
+		private int bufferSize = 64 * 1024;
+		private long checkpointBytes = Long.MAX_VALUE;
+		private long checkpointMillis = TimeUnit.DAYS.toMillis(1);
+		private String validator;
+		private Transport transport;
+		private Mirrors mirrors;
+		private StreamingDigest digest;
+		private RetryPolicy retry;
+		private long stallBytesPerSecond;
+		private long stallMillis;
+		private DownloadMetrics metrics;
+		private boolean compressed;
+		private long length = -1;
 
 		Builder(URL url, Path filePath) {
 			this.url = url;
@@ -158,9 +704,97 @@ final class Worker implements Runnable {
 			return this;
 		}
 
+		Builder channel(FileChannel channel) {
+			this.channel = channel;
+			return this;
+		}
+
+		Builder scheduler(SegmentScheduler scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		Builder bufferSize(int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		Builder checkpoint(long bytes, long millis) {
+			this.checkpointBytes = bytes;
+			this.checkpointMillis = millis;
+			return this;
+		}
+
+		Builder ifRange(String validator) {
+			this.validator = validator;
+			return this;
+		}
+
+		Builder transport(Transport transport) {
+			this.transport = transport;
+			return this;
+		}
+
+		Builder mirrors(Mirrors mirrors) {
+			this.mirrors = mirrors;
+			return this;
+		}
+
+		/**
+		 * Fed with every buffer of a single connection download, in file order.
+		 */
+		Builder digest(StreamingDigest digest) {
+			this.digest = digest;
+			return this;
+		}
+
+		Builder retry(RetryPolicy retry) {
+			this.retry = retry;
+			return this;
+		}
+
+		/**
+		 * @param minBytesPerSecond requests slower than this for the whole window are aborted, 0 never
+		 * @param windowMillis      length of the window
+		 */
+		Builder stallDetection(long minBytesPerSecond, long windowMillis) {
+			this.stallBytesPerSecond = minBytesPerSecond;
+			this.stallMillis = windowMillis;
+			return this;
+		}
+
+		/**
+		 * Overrides the metrics of the download, for workers running without one.
+		 */
+		Builder metrics(DownloadMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Accepts gzip, deflate and, if a decoder is present, brotli for the whole file and writes it decoded.
+		 * Only for single stream workers, the ranges of segments are never encoded.
+		 */
+		Builder compressed(boolean compressed) {
+			this.compressed = compressed;
+			return this;
+		}
+
+		/**
+		 * Length of the whole file, -1 if unknown. A single stream worker only takes 416 for a complete file
+		 * if its range starts at the end.
+		 */
+		Builder length(long length) {
+			this.length = length;
+			return this;
+		}
+
 		Worker build() {
 			return new Worker(url, userAgent, begin, end, filePath,
-					doneLatch, stopLatch, download, append);
+					doneLatch, stopLatch, download, append, channel, scheduler,
+					bufferSize, checkpointBytes, checkpointMillis, validator, transport, mirrors, digest, retry,
+					stallBytesPerSecond > 0 ? new StallDetector(stallBytesPerSecond, stallMillis) : null, metrics,
+					compressed && Util.isNull(scheduler), length);
 		}
 	}
 }
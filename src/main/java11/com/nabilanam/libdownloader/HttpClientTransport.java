@@ -0,0 +1,110 @@
+package com.nabilanam.libdownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Transport on java.net.http, compiled for Java 11 and only loaded by {@link Transport#httpClient()}.
+ * One client is shared by all requests, so ranges to a HTTP/2 server become streams of a single connection.
+ *
+ * @author nabil
+ */
+final class HttpClientTransport implements Transport {
+
+	private final HttpClient client;
+	private final Duration readTimeout;
+
+	HttpClientTransport(int connectTimeout, int readTimeout) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL);
+		if (connectTimeout > 0)
+			builder.connectTimeout(Duration.ofMillis(connectTimeout));
+		this.client = builder.build();
+		this.readTimeout = readTimeout > 0 ? Duration.ofMillis(readTimeout) : null;
+	}
+
+	@Override
+	public Response send(String method, URL url, Map<String, String> headers) throws IOException {
+		HttpRequest.Builder request;
+		try {
+			request = HttpRequest.newBuilder(url.toURI())
+					.method(method, HttpRequest.BodyPublishers.noBody());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.header(header.getKey(), header.getValue());
+		}
+		if (!Util.isNull(readTimeout))
+			request.timeout(readTimeout);
+		try {
+			return new ClientResponse(client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private static final class ClientResponse implements Response {
+		private final HttpResponse<InputStream> response;
+
+		private ClientResponse(HttpResponse<InputStream> response) {
+			this.response = response;
+		}
+
+		@Override
+		public int getStatus() {
+			return response.statusCode();
+		}
+
+		@Override
+		public URL getUrl() {
+			try {
+				return response.uri().toURL();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return response.headers().firstValue(name).orElse(null);
+		}
+
+		@Override
+		public long getContentLength() {
+			return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		}
+
+		@Override
+		public InputStream getBody() {
+			return response.body();
+		}
+
+		/**
+		 * Closing an unread body resets the stream, or closes the connection on HTTP/1.1.
+		 */
+		@Override
+		public void abort() {
+			try {
+				response.body().close();
+			} catch (IOException e) {
+				// already gone
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			response.body().close();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.nabilanam.libdownloader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Java 21 version of Threads, runs workers and the async driver on virtual threads when asked.
+ *
+ * @author nabil
+ */
+final class Threads {
+
+	private Threads() {
+	}
+
+	static boolean isVirtualSupported() {
+		return true;
+	}
+
+	static ExecutorService newExecutor(boolean virtual) {
+		return virtual ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+	}
+
+	static Thread newThread(boolean virtual, Runnable runnable) {
+		return virtual ? Thread.ofVirtual().unstarted(runnable) : new Thread(runnable);
+	}
+}
@@ -0,0 +1,154 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author nabil
+ */
+public class AsyncDownloadTest {
+
+	private final Path directory = Paths.get("target", "async");
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStartedOnExecutor_thenFutureCompletesWithResult() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.checksum("SHA-256")
+				.build();
+		DownloadResult result = download.startAsync(executor).get();
+
+		assertTrue(result.isComplete());
+		assertNull(result.getFailure());
+		assertEquals(server.getContent().length, result.getBytes());
+		assertEquals(server.getContent().length, result.getContentLength());
+		assertEquals("\"v1\"", result.getETag());
+		assertEquals(download.getChecksum(), result.getChecksum());
+		assertTrue(result.getDuration().toNanos() > 0);
+		assertArrayEquals(server.getContent(), Files.readAllBytes(result.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenDownloadFails_thenResultCarriesTheError() throws Exception {
+		server.reject(Integer.MAX_VALUE, 404);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.build();
+		DownloadResult result = download.startAsync(executor).get();
+
+		assertFalse(result.isComplete());
+		assertEquals(404, ((HttpStatusException) result.getFailure()).getStatus());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenCancelled_thenRequestsInFlightStopAndProgressIsKept() throws Exception {
+		server.slow(2, 1024, 100);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.segmentSize(1024 * 1024)
+				.preallocate(true)
+				.timeouts(30_000, 60_000)
+				.build();
+		CompletableFuture<DownloadResult> future = download.startAsync(executor);
+		while (server.getRequests().size() < 3) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertTrue(future.cancel(true));
+		while (download.isRunning()) {
+			Thread.sleep(10);
+		}
+
+		assertFalse(download.isComplete());
+		assertNull(download.getFailure());
+		download.start();
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStoppedDuringBlockedRead_thenItStopsWithoutWaitingForTheReadTimeout() throws Exception {
+		// a blocked HttpURLConnection read cannot be aborted from another thread
+		Transport transport = Transport.httpClient(30_000, 60_000);
+		assumeFalse(transport instanceof UrlConnectionTransport);
+		server.slow(1, 1024, 60_000);
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			Download download = new Download.Builder(server.url("book.bin"))
+					.directory(directory)
+					.transport(transport)
+					.build();
+			CompletableFuture<DownloadResult> future = download.startAsync(single);
+			while (server.getRequests().size() < 2) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			download.stop();
+
+			assertFalse(future.get().isComplete());
+			assertNull(future.get().getFailure());
+			assertFalse(single.submit(() -> Thread.currentThread().isInterrupted()).get());
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void whenCancelledBeforeItRuns_thenNothingIsRequested() throws Exception {
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			CompletableFuture<Void> blocker = new CompletableFuture<>();
+			single.execute(blocker::join);
+			Download download = new Download.Builder(server.url("book.bin"))
+					.directory(directory)
+					.threadCount(4)
+					.build();
+			int probes = server.getRequests().size();
+			CompletableFuture<DownloadResult> future = download.startAsync(single);
+			future.cancel(true);
+			blocker.complete(null);
+			single.submit(() -> null).get();
+
+			assertTrue(future.isCancelled());
+			assertEquals(probes, server.getRequests().size());
+		} finally {
+			single.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class ChecksumDownloadTest {
+
+	private final Path directory = Paths.get("target", "checksum");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenSingleWorker_thenChecksumIsComputedWhileDownloading() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.checksum("SHA-256", sha256())
+				.build();
+		download.start();
+
+		assertEquals(sha256(), download.getChecksum());
+		assertTrue(download.isChecksumValid());
+	}
+
+	@Test
+	public void whenSingleWorkerResumes_thenExistingBytesAreDigestedToo() throws Exception {
+		byte[] content = server.getContent();
+		Files.write(directory.resolve("book.bin"), Arrays.copyOf(content, content.length / 3));
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.checksum("sha-256")
+				.build();
+		download.start();
+
+		assertEquals(sha256(), download.getChecksum());
+	}
+
+	@Test
+	public void whenPreallocated_thenChecksumFollowsCompletedSegments() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.checksum("MD5", "00000000000000000000000000000000")
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(StreamingDigest.toHex(MessageDigest.getInstance("MD5").digest(server.getContent())),
+				download.getChecksum());
+		assertFalse(download.isChecksumValid());
+	}
+
+	@Test
+	public void whenPartFiles_thenChecksumFollowsMergedParts() throws Exception {
+		CRC32 crc = new CRC32();
+		crc.update(server.getContent());
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.checksum("CRC32")
+				.build();
+		download.start();
+
+		assertEquals(String.format("%08x", crc.getValue()), download.getChecksum());
+	}
+
+	@Test
+	public void whenNonBlocking_thenSegmentsFeedTheChecksum() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.segmentSize(64 * 1024)
+				.nonBlocking(true)
+				.checksum("SHA-256")
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(StreamingDigest.toHex(MessageDigest.getInstance("SHA-256").digest(server.getContent())),
+				download.getChecksum());
+	}
+
+	@Test
+	public void whenServerSendsDigest_thenItIsExpected() throws Exception {
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(server.getContent());
+		server.setDigest("sha-256=" + Base64.getEncoder().encodeToString(hash));
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.checksum("SHA-256")
+				.build();
+		download.start();
+
+		assertEquals(sha256(), download.getExpectedChecksum());
+		assertTrue(download.isChecksumValid());
+	}
+
+	private String sha256() throws NoSuchAlgorithmException {
+		return StreamingDigest.toHex(MessageDigest.getInstance("SHA-256").digest(server.getContent()));
+	}
+}
@@ -0,0 +1,149 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class CompressedDownloadTest {
+
+	private final Path directory = Paths.get("target", "compressed");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 20_000; i++) {
+			csv.append(i).append(",2016-07-").append(i % 28 + 1).append(",GET,/books/").append(i % 97).append(",200\n");
+		}
+		server = new TestServer(csv.toString().getBytes(StandardCharsets.US_ASCII));
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenGzipped_thenFileIsDecodedAndFewerBytesCrossTheWire() throws Exception {
+		server.setEncoding("gzip");
+		AtomicReference<Progress> last = new AtomicReference<>();
+		Download download = new Download.Builder(server.url("access.csv"))
+				.directory(directory)
+				.threadCount(4)
+				.compression(true)
+				.checksum("SHA-256")
+				.listener(new DownloadListener() {
+					@Override
+					public void downloaded(int bytes) {
+					}
+
+					@Override
+					public void progress(Progress progress) {
+						last.set(progress);
+					}
+				})
+				.build();
+		DownloadResult result = download.startAsync(Runnable::run).get();
+
+		assertTrue(result.isComplete());
+		assertEquals(1, download.getThreadCount());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(server.getContent().length, result.getBytes());
+		assertTrue(result.getWireBytes() * 5 < result.getBytes());
+		assertEquals(result.getWireBytes(), last.get().getWireBytes());
+		assertEquals(server.getContent().length, last.get().getDownloaded());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenDeflated_thenFileIsDecoded() throws IOException {
+		server.setEncoding("deflate");
+		Download download = new Download.Builder(server.url("access.csv"))
+				.directory(directory)
+				.compression(true)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenResumed_thenTheRestIsRequestedUncompressed() throws Exception {
+		server.setEncoding("gzip");
+		byte[] content = server.getContent();
+		Files.write(directory.resolve("access.csv"), Arrays.copyOf(content, content.length / 3));
+		Download download = new Download.Builder(server.url("access.csv"))
+				.directory(directory)
+				.compression(true)
+				.build();
+		DownloadResult result = download.startAsync(Runnable::run).get();
+
+		assertTrue(result.isComplete());
+		assertArrayEquals(content, Files.readAllBytes(download.getFilePath()));
+		assertEquals(result.getBytes(), result.getWireBytes());
+		assertTrue(server.getRequests().get(server.getRequests().size() - 1).startsWith("GET bytes=" + content.length / 3 + "-"));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNotEnabled_thenNothingIsAccepted() throws Exception {
+		server.setEncoding("gzip");
+		Download download = new Download.Builder(server.url("access.csv"))
+				.directory(directory)
+				.build();
+		DownloadResult result = download.startAsync(Runnable::run).get();
+
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(result.getBytes(), result.getWireBytes());
+	}
+
+	@Test
+	public void whenRawDeflate_thenItIsDecodedToo() throws IOException {
+		byte[] content = server.getContent();
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		try (DeflaterOutputStream out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+			out.write(content);
+		}
+		try (InputStream in = ContentEncoding.decode("deflate", new ByteArrayInputStream(raw.toByteArray()))) {
+			assertArrayEquals(content, readAll(in));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void whenCodingIsUnknown_thenDecodeFails() throws IOException {
+		ContentEncoding.decode("compress", new ByteArrayInputStream(new byte[0]));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,42 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author nabil
+ */
+public class ConnectionTunerTest {
+
+	@Test
+	public void whenEachConnectionAddsThroughput_thenConnectionsGrowUpToMax() {
+		ConnectionTuner tuner = new ConnectionTuner(4);
+		assertEquals(1, tuner.next(100, 2, false));
+		assertEquals(1, tuner.next(150, 3, false));
+		assertEquals(0, tuner.next(200, 4, false));
+	}
+
+	@Test
+	public void whenThroughputPlateaus_thenLastConnectionIsRemovedAndGrowthPauses() {
+		ConnectionTuner tuner = new ConnectionTuner(8);
+		assertEquals(1, tuner.next(100, 2, false));
+		// the third connection brought less than half of what one brought before
+		assertEquals(-1, tuner.next(120, 3, false));
+		for (int i = 0; i < ConnectionTuner.PAUSE_MEASUREMENTS; i++) {
+			assertEquals(0, tuner.next(120, 2, false));
+		}
+		assertEquals(1, tuner.next(120, 2, false));
+	}
+
+	@Test
+	public void whenServerOverloaded_thenGrowthPausesAndRecoversFromNoConnection() {
+		ConnectionTuner tuner = new ConnectionTuner(8);
+		assertEquals(1, tuner.next(100, 2, false));
+		assertEquals(0, tuner.next(0, 0, true));
+		for (int i = 0; i < ConnectionTuner.OVERLOAD_PAUSE_MEASUREMENTS; i++) {
+			assertEquals(0, tuner.next(0, 0, false));
+		}
+		assertEquals(1, tuner.next(0, 0, false));
+	}
+}
@@ -0,0 +1,168 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class ContentCacheTest {
+
+	private static final int LENGTH = 256 * 1024 + 7;
+
+	private final Path directory = Paths.get("target", "content");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(LENGTH);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSameVersionToAnotherDirectory_thenItIsCopiedFromTheCache() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH);
+		Download first = build("book.bin", "a", cache);
+		first.start();
+		Download second = build("book.bin", "b", cache);
+		second.start();
+
+		assertTrue(second.isComplete());
+		assertEquals(1, gets());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(second.getFilePath()));
+		assertNotEquals(fileKey(first.getFilePath()), fileKey(second.getFilePath()));
+		assertEquals(LENGTH, cache.size());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenLinking_thenTargetsShareTheCachedFile() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH, true);
+		Download first = build("book.bin", "a", cache);
+		first.start();
+		Download second = build("book.bin", "b", cache);
+		second.start();
+
+		assertTrue(second.isComplete());
+		assertEquals(1, gets());
+		assertEquals(fileKey(first.getFilePath()), fileKey(second.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenLinkedTargetIsDownloadedAgain_thenTheCachedFileIsLeftAlone() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH, true);
+		Download first = build("book.bin", "a", cache);
+		first.start();
+		Object cached = fileKey(first.getFilePath());
+		server.setETag("\"v2\"");
+		Download again = new Download.Builder(server.url("book.bin"))
+				.directory(directory.resolve("a"))
+				.threadCount(2)
+				.preallocate(true)
+				.contentCache(cache)
+				.build();
+		again.start();
+
+		assertTrue(again.isComplete());
+		assertNotEquals(cached, fileKey(again.getFilePath()));
+		assertArrayEquals(server.getContent(), Files.readAllBytes(again.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenServedByLink_thenMtimeOfOtherTargetsIsKept() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH, true);
+		Download first = build("book.bin", "a", cache);
+		first.start();
+		FileTime old = FileTime.fromMillis(1_000_000_000L);
+		Files.setLastModifiedTime(first.getFilePath(), old);
+		build("book.bin", "b", cache).start();
+
+		assertEquals(old, Files.getLastModifiedTime(first.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRemoteChanged_thenItIsDownloadedAgain() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH);
+		build("book.bin", "a", cache).start();
+		server.setETag("\"v2\"");
+		Download second = build("book.bin", "b", cache);
+		second.start();
+
+		assertTrue(second.isComplete());
+		assertEquals(2, gets());
+		assertEquals(2L * LENGTH, cache.size());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenVerifiedByChecksum_thenAnotherUrlIsServedFromTheCache() throws Exception {
+		String sha256 = StreamingDigest.toHex(MessageDigest.getInstance("SHA-256").digest(server.getContent()));
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 10L * LENGTH);
+		new Download.Builder(server.url("book.bin"))
+				.directory(directory.resolve("a"))
+				.checksum("SHA-256", sha256)
+				.contentCache(cache)
+				.build()
+				.start();
+		Download mirror = new Download.Builder(server.url("mirror/book.bin"))
+				.directory(directory.resolve("b"))
+				.checksum("SHA-256", sha256)
+				.contentCache(cache)
+				.build();
+		mirror.start();
+
+		assertTrue(mirror.isComplete());
+		assertTrue(mirror.isChecksumValid());
+		assertEquals(1, gets());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenCacheIsFull_thenLeastRecentlyUsedIsEvicted() throws IOException {
+		ContentCache cache = new ContentCache(directory.resolve("cache"), 2L * LENGTH);
+		build("one.bin", "a", cache).start();
+		build("two.bin", "a", cache).start();
+		build("one.bin", "b", cache).start();
+		build("three.bin", "a", cache).start();
+		assertEquals(3, gets());
+
+		build("one.bin", "c", cache).start();
+		assertEquals(3, gets());
+		build("two.bin", "c", cache).start();
+		assertEquals(4, gets());
+		assertTrue(cache.size() <= 2L * LENGTH);
+	}
+
+	private Download build(String name, String target, ContentCache cache) throws IOException {
+		return new Download.Builder(server.url(name))
+				.directory(directory.resolve(target))
+				.contentCache(cache)
+				.build();
+	}
+
+	private long gets() {
+		return server.getRequests().stream().filter(request -> request.startsWith("GET")).count();
+	}
+
+	private static Object fileKey(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+	}
+}
@@ -0,0 +1,150 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class DownloadBatchTest {
+
+	private final Path directory = Paths.get("target", "batch");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(4 * 1024 + 3);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 20_000)
+	public void whenManySmallFiles_thenEachIsOneRequestOnReusedConnections() throws Exception {
+		List<DownloadBatch.Result> results = new ArrayList<>();
+		try (DownloadBatch batch = new DownloadBatch.Builder()
+				.maxConnections(8)
+				.maxConnectionsPerHost(2)
+				.build()) {
+			batch.download(IntStream.range(0, 200).mapToObj(i -> entry("file" + i, "sub/file" + i)), results::add);
+		}
+
+		assertEquals(200, results.size());
+		for (DownloadBatch.Result result : results) {
+			assertTrue(result.isComplete());
+			assertEquals(server.getContent().length, result.getBytes());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(result.getPath()));
+		}
+		assertEquals(200, server.getRequests().size());
+		Set<String> ports = new HashSet<>();
+		for (String request : server.getRequests()) {
+			assertTrue(request.startsWith("GET null "));
+			ports.add(request.substring(request.lastIndexOf(' ') + 1));
+		}
+		assertTrue(ports.size() < 20);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenFileIsMissing_thenOnlyItsResultFails() throws Exception {
+		List<DownloadBatch.Result> results = new ArrayList<>();
+		List<Map.Entry<URL, Path>> entries = new ArrayList<>();
+		entries.add(entry("book.bin", "book.bin"));
+		entries.add(entry("missing.bin", "missing.bin"));
+		try (DownloadBatch batch = new DownloadBatch.Builder()
+				.retry(5, 10_000, 10_000)
+				.build()) {
+			batch.download(entries, results::add);
+		}
+
+		assertEquals(2, results.size());
+		for (DownloadBatch.Result result : results) {
+			if (result.getUrl().getPath().equals("/book.bin")) {
+				assertTrue(result.isComplete());
+				assertNull(result.getFailure());
+			} else {
+				assertFalse(result.isComplete());
+				assertEquals(404, ((HttpStatusException) result.getFailure()).getStatus());
+				assertFalse(Files.exists(result.getPath()));
+			}
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void whenConnectionDrops_thenFileResumesFromLastByte() throws Exception {
+		server.drop(1, 1000);
+		List<DownloadBatch.Result> results = new ArrayList<>();
+		try (DownloadBatch batch = new DownloadBatch.Builder()
+				.retry(3, 10, 10)
+				.build()) {
+			batch.download(Collections.singletonList(entry("book.bin", "book.bin")), results::add);
+		}
+
+		assertTrue(results.get(0).isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(directory.resolve("book.bin")));
+		assertTrue(server.getRequests().get(1).startsWith("GET bytes=1000- "));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStopped_thenLazyEntriesAreNotReadToTheEnd() throws Exception {
+		AtomicInteger read = new AtomicInteger();
+		Iterator<Map.Entry<URL, Path>> endless = new Iterator<Map.Entry<URL, Path>>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Map.Entry<URL, Path> next() {
+				int i = read.getAndIncrement();
+				return entry("file" + i, "file" + i);
+			}
+		};
+		AtomicInteger completed = new AtomicInteger();
+		try (DownloadBatch batch = new DownloadBatch.Builder()
+				.maxConnections(4)
+				.build()) {
+			batch.download(endless, result -> {
+				if (completed.incrementAndGet() == 50)
+					batch.stop();
+			});
+		}
+
+		assertTrue(completed.get() >= 50);
+		assertTrue(read.get() < 50 + 4 * 64 + 4);
+	}
+
+	private Map.Entry<URL, Path> entry(String name, String path) {
+		try {
+			return new AbstractMap.SimpleEntry<>(server.url(name), directory.resolve(path));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class DownloadManagerTest {
+
+	private final Path directory = Paths.get("target", "manager");
+	private TestServer server;
+	private DownloadManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(256 * 1024 + 3);
+		manager = new DownloadManager.Builder()
+				.maxConnections(4)
+				.maxConnectionsPerHost(3)
+				.build();
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		manager.shutdown();
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenManyDownloadsSubmitted_thenAllCompleteWithinConnectionLimits() throws Exception {
+		List<Download> downloads = new ArrayList<>();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			Download download = new Download.Builder(server.url("book" + i + ".bin"))
+					.directory(directory)
+					.threadCount(4)
+					.preallocate(i % 2 == 0)
+					.build();
+			downloads.add(download);
+			futures.add(manager.submit(download, i));
+			assertTrue(manager.getConnections() <= 3);
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		for (Download download : downloads) {
+			assertTrue(download.isComplete());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		}
+		assertEquals(0, manager.getConnections());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenManagedDownloadIsStartedAgain_thenThePoolOfTheManagerKeepsRunning() throws Exception {
+		Download first = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.build();
+		manager.submit(first).get();
+		first.start();
+
+		Download second = new Download.Builder(server.url("book2.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.build();
+		manager.submit(second).get();
+
+		assertTrue(second.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(second.getFilePath()));
+	}
+
+	@Test
+	public void whenThreadCountExceedsMaxConnections_thenDownloadCompletesWithFewerWorkers() throws IOException, ExecutionException, InterruptedException {
+		DownloadManager single = new DownloadManager.Builder().maxConnections(8).maxConnectionsPerHost(8).build();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(16)
+				.preallocate(true)
+				.build();
+		single.submit(download).get();
+		single.shutdown();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRunningDownloadIsCancelledWithoutInterrupt_thenItStops() throws Exception {
+		server.slow(2, 1024, 100);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.timeouts(30_000, 60_000)
+				.build();
+		Future<?> future = manager.submit(download);
+		while (server.getRequests().size() < 3) {
+			Thread.sleep(10);
+		}
+		assertTrue(future.cancel(false));
+		while (manager.getConnections() > 0) {
+			Thread.sleep(10);
+		}
+
+		assertFalse(download.isComplete());
+		assertNull(download.getFailure());
+		download.start();
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+}
@@ -0,0 +1,170 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class HttpInfoCacheTest {
+
+	private final Path directory = Paths.get("target", "cache");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(256 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenEntryIsFresh_thenBuildDoesNotProbe() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 60_000);
+		HttpInfo first = build(cache, false).getHttpInfo();
+		int requests = server.getRequests().size();
+		HttpInfo second = build(cache, false).getHttpInfo();
+
+		assertSame(first, second);
+		assertEquals(requests, server.getRequests().size());
+		assertEquals(server.getContent().length, second.getContentLength());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenEntryIsStale_thenNotModifiedKeepsIt() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 0);
+		build(cache, false);
+		HttpInfo second = build(cache, false).getHttpInfo();
+
+		assertEquals(2, server.getRequests().size());
+		assertTrue(second.isConditional());
+		assertTrue(second.isNotModified());
+		assertEquals("\"v1\"", second.getETag());
+		assertEquals(server.getContent().length, second.getContentLength());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRemoteChanged_thenRevalidationProbesAgain() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 0);
+		build(cache, false);
+		server.setETag("\"v2\"");
+		HttpInfo second = build(cache, false).getHttpInfo();
+
+		assertFalse(second.isNotModified());
+		assertEquals("\"v2\"", second.getETag());
+		assertSame(second, cache.get(server.url("book.bin")));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRefreshingUnchangedFile_thenOnlyTheConditionalProbeIsSent() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 60_000);
+		Download first = build(cache, true);
+		first.start();
+		assertTrue(first.isComplete());
+		int requests = server.getRequests().size();
+
+		Download second = build(cache, true);
+		second.start();
+
+		assertTrue(second.isComplete());
+		assertEquals(requests + 1, server.getRequests().size());
+		assertTrue(server.getRequests().get(requests).startsWith("HEAD"));
+		assertArrayEquals(server.getContent(), Files.readAllBytes(second.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenServerIgnoresConditionalProbe_thenUnchangedFileIsKept() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 60_000);
+		build(cache, true).start();
+		server.setConditional(false);
+		int requests = server.getRequests().size();
+
+		Download second = build(cache, true);
+		second.start();
+
+		assertFalse(second.getHttpInfo().isNotModified());
+		assertTrue(second.isComplete());
+		assertEquals(requests + 1, server.getRequests().size());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(second.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRefreshingChangedFile_thenItIsDownloadedAgain() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 60_000);
+		build(cache, true).start();
+		Files.write(directory.resolve("book.bin"), new byte[server.getContent().length]);
+		server.setETag("\"v2\"");
+
+		Download second = build(cache, true);
+		second.start();
+
+		assertTrue(second.isComplete());
+		assertEquals("\"v2\"", second.getHttpInfo().getETag());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(second.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenCachedInDirectory_thenAnotherCacheReadsIt() throws IOException {
+		Path store = directory.resolve("store");
+		build(new HttpInfoCache(16, 60_000, store), false);
+		int requests = server.getRequests().size();
+		HttpInfo info = build(new HttpInfoCache(16, 60_000, store), false).getHttpInfo();
+
+		assertEquals(requests, server.getRequests().size());
+		assertEquals("\"v1\"", info.getETag());
+		assertEquals(server.getContent().length, info.getContentLength());
+		assertTrue(info.isPartial());
+	}
+
+	@Test
+	public void whenFull_thenLeastRecentlyUsedIsDropped() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(2, 60_000);
+		HttpInfo info = new HttpInfo(Transport.urlConnection(), server.url("book.bin"), "test");
+		cache.put(server.url("a"), info);
+		cache.put(server.url("b"), info);
+		cache.get(server.url("a"));
+		cache.put(server.url("c"), info);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get(server.url("b")));
+		assertSame(info, cache.get(server.url("a")));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenProbeFails_thenNothingIsCached() throws IOException {
+		HttpInfoCache cache = new HttpInfoCache(16, 60_000);
+		new Download.Builder(server.url("missing.bin"))
+				.directory(directory)
+				.cache(cache)
+				.build();
+
+		assertNull(cache.get(server.url("missing.bin")));
+	}
+
+	private Download build(HttpInfoCache cache, boolean refresh) throws IOException {
+		return new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.cache(cache)
+				.refreshIfChanged(refresh)
+				.build();
+	}
+}
@@ -6,6 +6,10 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -41,4 +45,64 @@ public class HttpInfoTest {
 		assertEquals("application/pdf", info.getContentType());
 		assertEquals("her_benny.pdf", info.getName());
 	}
+
+	@Test
+	public void whenServerAnswersHead_thenOnlyHeadIsSent() throws IOException {
+		try (TestServer server = new TestServer(1000)) {
+			HttpInfo info = new HttpInfo((HttpURLConnection) server.url("head.bin").openConnection(), userAgent);
+
+			assertTrue(info.isPartial());
+			assertEquals(1000L, info.getContentLength());
+			assertEquals("\"v1\"", info.getETag());
+			assertEquals("head.bin", info.getName());
+			assertEquals(1, server.getRequests().size());
+			assertTrue(server.getRequests().get(0).startsWith("HEAD null"));
+		}
+	}
+
+	@Test
+	public void whenServerRejectsHead_thenOneByteRangeIsRequested() throws IOException {
+		try (TestServer server = new TestServer(1000)) {
+			server.setHeadAllowed(false);
+			HttpInfo info = new HttpInfo((HttpURLConnection) server.url("range.bin").openConnection(), userAgent);
+
+			assertTrue(info.isPartial());
+			assertEquals(1000L, info.getContentLength());
+			assertEquals(2, server.getRequests().size());
+			assertTrue(server.getRequests().get(1).startsWith("GET bytes=0-0"));
+		}
+	}
+
+	@Test
+	public void whenProbed_thenFirstWorkerReusesProbeConnection() throws IOException {
+		Path directory = Paths.get("target", "probe");
+		Files.createDirectories(directory);
+		try (TestServer server = new TestServer(1000)) {
+			// the jdk server closes the connection after HEAD, so the reuse is seen on the ranged probe
+			server.setHeadAllowed(false);
+			Download download = new Download.Builder(server.url("probe.bin"))
+					.directory(directory)
+					.build();
+			download.start();
+
+			assertTrue(download.isComplete());
+			List<String> requests = server.getRequests();
+			assertEquals(3, requests.size());
+			assertEquals(port(requests.get(1)), port(requests.get(2)));
+		} finally {
+			Files.deleteIfExists(directory.resolve("probe.bin"));
+			Files.deleteIfExists(directory.resolve("probe.bin.journal"));
+		}
+	}
+
+	@Test
+	public void whenContentRangeGiven_thenTotalLengthIsParsed() {
+		assertEquals(1234L, HttpInfo.getTotalLength("bytes 0-0/1234"));
+		assertEquals(-1L, HttpInfo.getTotalLength("bytes 0-0/*"));
+		assertEquals(-1L, HttpInfo.getTotalLength(null));
+	}
+
+	private static String port(String request) {
+		return request.substring(request.lastIndexOf(' ') + 1);
+	}
 }
@@ -0,0 +1,212 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class InMemoryDownloadTest {
+
+	private final Path directory = Paths.get("target", "memory");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSingleWorkerInMemory_thenNothingIsWrittenToDisk() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.inMemory(2 * 1024 * 1024)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), toArray(download.getContent()));
+		assertEquals(0, directory.toFile().list().length);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSegmentsInMemory_thenTheyAreWrittenAtTheirOffsets() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.inMemory(2 * 1024 * 1024)
+				.checksum("CRC32")
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), toArray(download.getContent()));
+		assertEquals(0, directory.toFile().list().length);
+		StreamingDigest expected = new StreamingDigest("CRC32");
+		expected.update(ByteBuffer.wrap(server.getContent()));
+		assertEquals(expected.finish(), download.getChecksum());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNonBlockingInMemory_thenContentIsComplete() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.nonBlocking(true)
+				.inMemory(2 * 1024 * 1024)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), toArray(download.getContent()));
+	}
+
+	@Test(expected = MemoryChannel.LimitExceededException.class)
+	public void whenLargerThanLimit_thenBuildFails() throws IOException {
+		new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.inMemory(1024 * 1024)
+				.build();
+	}
+
+	@Test(timeout = 10_000)
+	public void whenUnknownLengthExceedsLimit_thenDownloadFailsWithoutRetries() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.inMemory(1024 * 1024)
+				.httpInfo(new HttpInfo(Transport.urlConnection(), server.url("book.bin"), null) {
+					@Override
+					public long getContentLength() {
+						return -1;
+					}
+				})
+				.build();
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertNull(download.getContent());
+		assertTrue(download.getFailure() instanceof MemoryChannel.LimitExceededException);
+		assertEquals(1, server.getRequests().stream().filter(request -> request.startsWith("GET")).count());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStreamedWhileSegmentsAreFetched_thenFileIsReadInOrderBeforeCompletion() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.rateLimit(4 * 1024 * 1024)
+				.build();
+		download.startAsync();
+		boolean firstReadBeforeCompletion;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = download.openStream()) {
+			byte[] buffer = new byte[8192];
+			int read = in.read(buffer);
+			firstReadBeforeCompletion = !download.isComplete();
+			while (read != -1) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+		}
+
+		assertTrue(firstReadBeforeCompletion);
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), out.toByteArray());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStreamedFromMemoryOrPartFilesOrSingleWorker_thenWholeFileIsRead() throws IOException {
+		Download memory = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.inMemory(2 * 1024 * 1024)
+				.build();
+		Download parts = new Download.Builder(server.url("parts.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.build();
+		Download single = new Download.Builder(server.url("single.bin"))
+				.directory(directory)
+				.build();
+		for (Download download : new Download[]{memory, parts, single}) {
+			download.startAsync();
+			try (InputStream in = download.openStream()) {
+				assertArrayEquals(server.getContent(), readAll(in));
+			}
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void whenDownloadFails_thenStreamThrows() throws IOException {
+		server.reject(100, 404);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.build();
+		download.startAsync();
+		try (InputStream in = download.openStream()) {
+			in.read();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof HttpStatusException);
+		}
+	}
+
+	@Test
+	public void whenPositionIsPastTheIntRange_thenItIsNotNarrowed() throws IOException {
+		MemoryChannel channel = new MemoryChannel(16, 1024);
+		channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0);
+		long far = (1L << 32) + 1;
+
+		assertEquals(-1, channel.read(ByteBuffer.allocate(4), far));
+		channel.position(far);
+		assertEquals(far, channel.position());
+		try {
+			channel.write(ByteBuffer.wrap(new byte[]{4}));
+			fail();
+		} catch (MemoryChannel.LimitExceededException e) {
+			assertEquals(3, channel.size());
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
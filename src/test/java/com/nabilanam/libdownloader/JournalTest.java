@@ -0,0 +1,76 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class JournalTest {
+
+	private final Path path = Paths.get("target", "test.journal");
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	@Test
+	public void whenJournalWritten_thenReadReturnsSegmentPositions() throws IOException {
+		Files.createDirectories(path.getParent());
+		Journal journal = new Journal(path, 100L, "\"v1\"", "yesterday");
+		journal.write(Arrays.asList(new Segment(0, 49, 10), new Segment(50, 99, 99)));
+
+		List<Segment> segments = journal.read();
+		assertEquals(2, segments.size());
+		assertEquals(10L, segments.get(0).getPosition());
+		assertEquals(50L, segments.get(1).getBegin());
+		assertEquals(99L, segments.get(1).getEnd());
+		assertEquals(99L, segments.get(1).getPosition());
+	}
+
+	@Test
+	public void whenContentLengthDiffers_thenReadReturnsEmpty() throws IOException {
+		Files.createDirectories(path.getParent());
+		new Journal(path, 100L, null, null).write(Arrays.asList(new Segment(0, 99)));
+
+		assertTrue(new Journal(path, 101L, null, null).read().isEmpty());
+	}
+
+	@Test
+	public void whenValidatorsDiffer_thenReadReturnsEmpty() throws IOException {
+		Files.createDirectories(path.getParent());
+		new Journal(path, 100L, "\"v1\"", "yesterday").write(Arrays.asList(new Segment(0, 99)));
+
+		assertTrue(new Journal(path, 100L, "\"v2\"", "yesterday").read().isEmpty());
+		assertTrue(new Journal(path, 100L, "\"v1\"", "today").read().isEmpty());
+	}
+
+	@Test
+	public void whenJournalCorrupt_thenReadReturnsEmpty() throws IOException {
+		Files.createDirectories(path.getParent());
+		Journal journal = new Journal(path, 100L, null, null);
+		journal.write(Arrays.asList(new Segment(0, 99, 50)));
+		byte[] bytes = Files.readAllBytes(path);
+		bytes[bytes.length - 10] ^= 1;
+		Files.write(path, bytes);
+
+		assertTrue(journal.exists());
+		assertTrue(journal.read().isEmpty());
+	}
+
+	@Test
+	public void whenJournalMissing_thenReadReturnsEmpty() {
+		assertTrue(new Journal(path, 100L, null, null).read().isEmpty());
+	}
+}
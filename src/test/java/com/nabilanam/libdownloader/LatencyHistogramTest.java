@@ -0,0 +1,46 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void whenEmpty_thenEverythingIsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMeanMillis(), 0);
+		assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+	}
+
+	@Test
+	public void whenRecorded_thenMeanAndMaxAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+		assertEquals(2, histogram.getCount());
+		assertEquals(20, histogram.getMeanMillis(), 1e-9);
+		assertEquals(30, histogram.getMaxMillis(), 1e-9);
+	}
+
+	@Test
+	public void whenPercentileTaken_thenWithinFactorOfTwo() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+		double p50 = histogram.getPercentileMillis(0.5);
+		assertTrue(p50 >= 1 && p50 <= 2);
+		double p99 = histogram.getPercentileMillis(0.99);
+		assertTrue(p99 >= 1 && p99 <= 2);
+		assertEquals(500, histogram.getPercentileMillis(1), 1e-9);
+	}
+}
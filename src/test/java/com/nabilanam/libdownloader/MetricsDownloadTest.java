@@ -0,0 +1,183 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class MetricsDownloadTest {
+
+	private final Path directory = Paths.get("target", "metrics");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSegmentsDownloaded_thenRequestsAndBytesAreReported() throws IOException {
+		RecordingMetrics metrics = new RecordingMetrics();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.metrics(metrics)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(1, metrics.probes.get());
+		assertEquals(metrics.started.get(), metrics.ended.get());
+		assertTrue(metrics.started.get() >= 4);
+		assertEquals(metrics.started.get(), metrics.firstBytes.get());
+		assertEquals(server.getContent().length, metrics.bytes.get());
+		assertEquals(server.getContent().length, metrics.completedBytes.get());
+		assertTrue(metrics.merges.get() > 0);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNonBlockingSegmentsDownloaded_thenRequestsAndBytesAreReported() throws IOException {
+		RecordingMetrics metrics = new RecordingMetrics();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.nonBlocking(true)
+				.metrics(metrics)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(metrics.started.get(), metrics.ended.get());
+		assertTrue(metrics.connects.get() >= 4);
+		assertEquals(server.getContent().length, metrics.bytes.get());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRequestsRetried_thenRetriesAndFailureAreReported() throws IOException {
+		server.reject(100, 503);
+		RecordingMetrics metrics = new RecordingMetrics();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.retry(2, 1, 1)
+				.metrics(metrics)
+				.build();
+		download.start();
+
+		assertFalse(download.isComplete());
+		// the other worker may stop before using up its retries
+		assertTrue(metrics.retries.get() >= 2);
+		assertEquals(1, metrics.failures.get());
+		assertEquals(metrics.started.get(), metrics.ended.get());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenJmxMetricsUsed_thenHostMBeanIsRegistered() throws Exception {
+		JmxMetrics metrics = new JmxMetrics("test");
+		try {
+			Download download = new Download.Builder(server.url("book.bin"))
+					.directory(directory)
+					.threadCount(2)
+					.preallocate(true)
+					.metrics(metrics)
+					.build();
+			download.start();
+
+			String host = server.url("book.bin").getHost();
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			assertEquals((long) server.getContent().length, mBeanServer.getAttribute(metrics.objectName(host), "Bytes"));
+			CompositeData firstByte = (CompositeData) mBeanServer.getAttribute(metrics.objectName(host), "FirstByte");
+			assertEquals(metrics.getHost(host).getRequests(), firstByte.get("count"));
+			assertEquals(1, metrics.getHost(host).getCompletedDownloads());
+			assertEquals(0, metrics.getHost(host).getActiveRequests());
+		} finally {
+			metrics.close();
+		}
+	}
+
+	private static final class RecordingMetrics implements DownloadMetrics {
+		private final AtomicInteger probes = new AtomicInteger();
+		private final AtomicInteger connects = new AtomicInteger();
+		private final AtomicInteger firstBytes = new AtomicInteger();
+		private final AtomicInteger started = new AtomicInteger();
+		private final AtomicInteger ended = new AtomicInteger();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicInteger retries = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger merges = new AtomicInteger();
+		private final AtomicLong completedBytes = new AtomicLong();
+
+		@Override
+		public void probed(String host, long nanos) {
+			probes.incrementAndGet();
+		}
+
+		@Override
+		public void connected(String host, long nanos) {
+			connects.incrementAndGet();
+		}
+
+		@Override
+		public void firstByte(String host, long nanos) {
+			firstBytes.incrementAndGet();
+		}
+
+		@Override
+		public void requestStarted(String host) {
+			started.incrementAndGet();
+		}
+
+		@Override
+		public void requestEnded(String host, long bytes, long nanos) {
+			ended.incrementAndGet();
+			this.bytes.addAndGet(bytes);
+		}
+
+		@Override
+		public void retried(String host, IOException e) {
+			retries.incrementAndGet();
+		}
+
+		@Override
+		public void failed(String host, IOException e) {
+			failures.incrementAndGet();
+		}
+
+		@Override
+		public void merged(String host, long nanos) {
+			merges.incrementAndGet();
+		}
+
+		@Override
+		public void completed(String host, long bytes, long nanos) {
+			completedBytes.addAndGet(bytes);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class MirrorDownloadTest {
+
+	private static final int LENGTH = 1024 * 1024 + 7;
+
+	private final Path directory = Paths.get("target", "mirror");
+	private TestServer server;
+	private TestServer mirror;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(LENGTH);
+		mirror = new TestServer(LENGTH);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		mirror.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenMirrorServesSameFile_thenRangesComeFromBoth() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.mirrors(mirror.url("book.bin"))
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(Arrays.asList(server.url("book.bin"), mirror.url("book.bin")), download.getMirrors());
+		assertTrue(server.getRequests().stream().anyMatch(request -> request.startsWith("GET bytes=")));
+		assertTrue(mirror.getRequests().stream().anyMatch(request -> request.startsWith("GET bytes=")));
+	}
+
+	@Test
+	public void whenMirrorHasAnotherVersion_thenItIsNotUsed() throws IOException {
+		mirror.setETag("\"v2\"");
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.mirrors(mirror.url("book.bin"))
+				.build();
+		download.start();
+
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(Arrays.asList(server.url("book.bin")), download.getMirrors());
+		assertFalse(mirror.getRequests().stream().anyMatch(request -> request.startsWith("GET")));
+	}
+
+	@Test
+	public void whenMirrorFails_thenItsRangesComeFromTheOthers() throws IOException {
+		mirror.reject(Integer.MAX_VALUE);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.mirrors(mirror.url("book.bin"))
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+}
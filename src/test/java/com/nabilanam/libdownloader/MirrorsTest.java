@@ -0,0 +1,56 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class MirrorsTest {
+
+	private final URL fast;
+	private final URL slow;
+
+	public MirrorsTest() throws MalformedURLException {
+		fast = new URL("http://fast.example.com/book.bin");
+		slow = new URL("http://slow.example.com/book.bin");
+	}
+
+	@Test
+	public void whenUnmeasured_thenEveryMirrorIsTriedFirst() {
+		Mirrors mirrors = new Mirrors(Arrays.asList(fast, slow));
+		assertEquals(fast, mirrors.acquire().getUrl());
+		assertEquals(slow, mirrors.acquire().getUrl());
+	}
+
+	@Test
+	public void whenMeasured_thenConnectionsFollowThroughput() {
+		Mirrors mirrors = new Mirrors(Arrays.asList(fast, slow));
+		mirrors.release(mirrors.acquire(), 3000, 1000);
+		mirrors.release(mirrors.acquire(), 1000, 1000);
+
+		int fastCount = 0;
+		for (int i = 0; i < 8; i++) {
+			if (mirrors.acquire().getUrl().equals(fast))
+				fastCount++;
+		}
+		assertEquals(6, fastCount);
+	}
+
+	@Test
+	public void whenMirrorFails_thenItIsNotUsedAgainButTheLastOneIsKept() {
+		Mirrors mirrors = new Mirrors(Arrays.asList(fast, slow));
+		assertTrue(mirrors.fail(mirrors.acquire()));
+		assertEquals(slow, mirrors.acquire().getUrl());
+		assertEquals(slow, mirrors.acquire().getUrl());
+		assertFalse(mirrors.fail(mirrors.acquire()));
+		assertEquals(slow, mirrors.acquire().getUrl());
+	}
+}
@@ -0,0 +1,207 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class NonBlockingDownloadTest {
+
+	private final Path directory = Paths.get("target", "nonblocking");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenPreallocated_thenFileMatchesContent() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.segmentSize(64 * 1024)
+				.nonBlocking(true)
+				.build();
+		download.start();
+
+		assertTrue(download.isNonBlocking());
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(1, directory.toFile().list().length);
+	}
+
+	@Test
+	public void whenPartFiles_thenMergedFileMatchesContent() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.nonBlocking(true)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test
+	public void whenJournalHasProgress_thenOnlyRemainingBytesAreDownloaded() throws IOException {
+		byte[] content = server.getContent();
+		int half = content.length / 2;
+		Path file = directory.resolve("book.bin");
+		byte[] partial = new byte[content.length];
+		System.arraycopy(content, 0, partial, 0, half);
+		Files.write(file, partial);
+		new Journal(directory.resolve("book.bin.journal"), content.length, "\"v1\"", null)
+				.write(Arrays.asList(new Segment(0, half - 1, half), new Segment(half, content.length - 1)));
+
+		AtomicLong downloaded = new AtomicLong();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.nonBlocking(true)
+				.listener(downloaded::addAndGet)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(content.length - half, downloaded.get());
+		assertArrayEquals(content, Files.readAllBytes(file));
+	}
+
+	@Test
+	public void whenManyDownloadsShareSelector_thenAllMatchContent() throws IOException, InterruptedException {
+		List<Download> downloads = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Download download = new Download.Builder(server.url("book" + i + ".bin"))
+					.directory(directory)
+					.threadCount(8)
+					.preallocate(true)
+					.segmentSize(32 * 1024)
+					.nonBlocking(true)
+					.build();
+			downloads.add(download);
+			Thread thread = new Thread(download::start);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (Download download : downloads) {
+			assertTrue(download.isComplete());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		}
+	}
+
+	@Test
+	public void whenRemoteChangesAfterBuild_thenDownloadStopsAndDiscardsProgress() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.nonBlocking(true)
+				.build();
+		server.setETag("\"v2\"");
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertFalse(Files.exists(download.getFilePath()));
+	}
+
+	@Test
+	public void whenManagerRateLimited_thenSelectorPausesReads() throws IOException, InterruptedException, ExecutionException {
+		DownloadManager manager = new DownloadManager.Builder()
+				.rateLimit(4 * 1024 * 1024)
+				.build();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.nonBlocking(true)
+				.build();
+		long start = System.nanoTime();
+		manager.submit(download).get();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		manager.shutdown();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertTrue(millis >= 140);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenStatusLineIsMalformed_thenDownloadFailsWithTheError() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			Thread acceptor = new Thread(() -> {
+				while (!socket.isClosed()) {
+					try (Socket client = socket.accept()) {
+						BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+						String request = in.readLine();
+						String line;
+						while (!Util.isStringNullOrEmpty(line = in.readLine())) {
+						}
+						String response = request.startsWith("HEAD")
+								? "HTTP/1.1 200 OK\r\nAccept-Ranges: bytes\r\nContent-Length: 1048576\r\n\r\n"
+								: "HTTP/1.1 2x6 Partial Content\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+						client.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+					} catch (IOException e) {
+						// closed at the end of the test
+					}
+				}
+			});
+			acceptor.setDaemon(true);
+			acceptor.start();
+			Download download = new Download.Builder(new URL("http://127.0.0.1:" + socket.getLocalPort() + "/book.bin"))
+					.directory(directory)
+					.threadCount(2)
+					.preallocate(true)
+					.nonBlocking(true)
+					.build();
+			download.start();
+
+			assertFalse(download.isComplete());
+			assertTrue(download.getFailure().getCause() instanceof NumberFormatException);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class PartFileDownloadTest {
+
+	private final Path directory = Paths.get("target", "parts");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(400_003);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenPartsComplete_thenTheyAreMergedAndRemoved() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(1, directory.toFile().list().length);
+	}
+
+	@Test
+	public void whenLeadingPartsAlreadyMerged_thenOnlyRemainingBytesAreDownloaded() throws IOException {
+		byte[] content = server.getContent();
+		int size = content.length / 4;
+		int end0 = size;
+		int end1 = end0 + size + 1;
+		int end2 = end1 + size + 1;
+		int half2 = end1 + 1 + size / 2;
+		// part 0 merged, part 1 appended only partly before the merge was interrupted
+		byte[] target = Arrays.copyOf(content, end0 + 1 + 100);
+		Files.write(directory.resolve("book.bin"), target);
+		Files.write(directory.resolve("book.bin1"), Arrays.copyOfRange(content, end0 + 1, end1 + 1));
+		Files.write(directory.resolve("book.bin2"), Arrays.copyOfRange(content, end1 + 1, half2));
+		new Journal(directory.resolve("book.bin.journal"), content.length, "\"v1\"", null)
+				.write(Arrays.asList(new Segment(end0 + 1, end1, end1 + 1), new Segment(end1 + 1, end2, half2),
+						new Segment(end2 + 1, content.length - 1)));
+
+		AtomicLong downloaded = new AtomicLong();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.listener(downloaded::addAndGet)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(content.length - half2, downloaded.get());
+		assertArrayEquals(content, Files.readAllBytes(download.getFilePath()));
+		assertEquals(1, directory.toFile().list().length);
+	}
+}
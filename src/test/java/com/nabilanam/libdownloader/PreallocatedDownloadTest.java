@@ -0,0 +1,202 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class PreallocatedDownloadTest {
+
+	private final Path directory = Paths.get("target", "preallocated");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenPreallocated_thenFileMatchesContentWithoutPartFiles() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertEquals(1, directory.toFile().list().length);
+	}
+
+	@Test
+	public void whenJournalHasProgress_thenOnlyRemainingBytesAreDownloaded() throws IOException {
+		byte[] content = server.getContent();
+		int half = content.length / 2;
+		Path file = directory.resolve("book.bin");
+		byte[] partial = new byte[content.length];
+		System.arraycopy(content, 0, partial, 0, half);
+		Files.write(file, partial);
+		new Journal(directory.resolve("book.bin.journal"), content.length, "\"v1\"", null)
+				.write(Arrays.asList(new Segment(0, half - 1, half), new Segment(half, content.length - 1)));
+
+		long[] downloaded = new long[1];
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.listener(bytes -> downloaded[0] += bytes)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(content.length - half, downloaded[0]);
+		assertArrayEquals(content, Files.readAllBytes(file));
+		assertFalse(Files.exists(directory.resolve("book.bin.journal")));
+	}
+
+	@Test
+	public void whenSegmentsAreSmall_thenThreadsShareThemAndFileMatchesContent() throws IOException {
+		long[] downloaded = new long[1];
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(3)
+				.preallocate(true)
+				.segmentSize(10_000)
+				.checkpoint(50_000, 1)
+				.listener(bytes -> {
+					synchronized (downloaded) {
+						downloaded[0] += bytes;
+					}
+				})
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(server.getContent().length, downloaded[0]);
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test
+	public void whenListenerSubscribed_thenProgressReportsTotalsAndCompleteRanges() throws IOException {
+		Progress[] last = new Progress[1];
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.progressInterval(5)
+				.listener(new DownloadListener() {
+					@Override
+					public void downloaded(int bytes) {
+					}
+
+					@Override
+					public void progress(Progress progress) {
+						last[0] = progress;
+					}
+				})
+				.build();
+		download.start();
+
+		assertEquals(server.getContent().length, last[0].getDownloaded());
+		assertEquals(server.getContent().length, last[0].getContentLength());
+		assertTrue(last[0].getRanges().size() >= 4);
+		for (Progress.Range range : last[0].getRanges()) {
+			assertTrue(range.isComplete());
+		}
+	}
+
+	@Test
+	public void whenJournalIsOfAnotherVersion_thenWholeFileIsDownloadedAgain() throws IOException {
+		byte[] content = server.getContent();
+		Files.write(directory.resolve("book.bin"), new byte[content.length]);
+		new Journal(directory.resolve("book.bin.journal"), content.length, "\"v0\"", null)
+				.write(Arrays.asList(new Segment(0, content.length - 1, content.length)));
+
+		long[] downloaded = new long[1];
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.listener(bytes -> downloaded[0] += bytes)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertEquals(content.length, downloaded[0]);
+		assertArrayEquals(content, Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test
+	public void whenRemoteChangesAfterBuild_thenDownloadStopsAndDiscardsProgress() throws IOException {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(2)
+				.preallocate(true)
+				.build();
+		server.setETag("\"v2\"");
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertFalse(Files.exists(download.getFilePath()));
+		assertFalse(Files.exists(directory.resolve("book.bin.journal")));
+	}
+
+	@Test
+	public void whenRateLimited_thenDownloadTakesAtLeastContentOverRate() throws IOException {
+		RateLimiter shared = new RateLimiter(0);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.rateLimit(4 * 1024 * 1024)
+				.rateLimiter(shared)
+				.build();
+		long start = System.nanoTime();
+		download.start();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		// 1 MiB at 4 MiB/s less the free tenth of a second
+		assertTrue(millis >= 140);
+	}
+
+	@Test
+	public void whenAdaptiveAndServerRejectsOneRange_thenRemainingConnectionsFinish() throws IOException {
+		server.reject(1);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(8)
+				.preallocate(true)
+				.adaptive(true)
+				.build();
+		download.start();
+
+		assertTrue(download.isAdaptive());
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+}
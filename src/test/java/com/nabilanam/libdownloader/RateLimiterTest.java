@@ -0,0 +1,38 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class RateLimiterTest {
+
+	@Test
+	public void whenUnlimited_thenNoWait() {
+		RateLimiter limiter = new RateLimiter(0);
+		assertEquals(0, limiter.reserve(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void whenBurstExceeded_thenWaitMatchesRate() {
+		RateLimiter limiter = new RateLimiter(1000);
+		// a tenth of a second is free, the next second of bytes has to be waited for
+		assertEquals(0, limiter.reserve(100));
+		long wait = limiter.reserve(1000);
+		assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900));
+		assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(1000));
+	}
+
+	@Test
+	public void whenRateChanged_thenNextReserveUsesIt() {
+		RateLimiter limiter = new RateLimiter(1000);
+		limiter.setBytesPerSecond(0);
+		assertEquals(0, limiter.reserve(1_000_000));
+		assertEquals(0, limiter.getBytesPerSecond());
+	}
+}
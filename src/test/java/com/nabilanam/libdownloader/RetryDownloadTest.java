@@ -0,0 +1,175 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class RetryDownloadTest {
+
+	private final Path directory = Paths.get("target", "retry");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSingleConnectionDrops_thenItResumesFromLastWrittenByte() throws IOException {
+		server.drop(2, 100 * 1024);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.retry(5, 10, 50)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+		assertTrue(server.getRequests().stream().anyMatch(request -> request.startsWith("GET bytes=" + 100 * 1024 + "-")));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenResumedRangeIsNotFound_thenDownloadFails() throws IOException {
+		byte[] content = server.getContent();
+		Files.write(directory.resolve("book.bin"), Arrays.copyOf(content, content.length / 2));
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.retry(0, 10, 50)
+				.build();
+		server.reject(1, 404);
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertEquals(404, ((HttpStatusException) download.getFailure()).getStatus());
+		assertEquals(content.length / 2, Files.size(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenFileIsAlreadyComplete_thenRangeNotSatisfiableCompletesIt() throws IOException {
+		Files.write(directory.resolve("book.bin"), server.getContent());
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.retry(0, 10, 50)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenWorkerThrowsUnchecked_thenDownloadFailsInsteadOfHanging() throws IOException {
+		Transport http = Transport.urlConnection();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.transport((method, url, headers) -> {
+					if ("GET".equals(method))
+						throw new IllegalStateException("broken transport");
+					return http.send(method, url, headers);
+				})
+				.build();
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertTrue(download.getFailure().getCause() instanceof IllegalStateException);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSegmentConnectionsDrop_thenSegmentsAreRetried() throws IOException {
+		server.drop(3, 16 * 1024);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.retry(5, 10, 50)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertNull(download.getFailure());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNonBlockingConnectionsDrop_thenSegmentsAreRetried() throws IOException {
+		server.drop(3, 16 * 1024);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.nonBlocking(true)
+				.retry(5, 10, 50)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenRetriesAreUsedUp_thenDownloadStopsAndListenerIsTold() throws IOException {
+		server.reject(Integer.MAX_VALUE, 503);
+		AtomicReference<IOException> failed = new AtomicReference<>();
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.retry(2, 10, 20)
+				.listener(new DownloadListener() {
+					@Override
+					public void downloaded(int bytes) {
+					}
+
+					@Override
+					public void failed(IOException e) {
+						failed.set(e);
+					}
+				})
+				.build();
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertSame(download.getFailure(), failed.get());
+		assertEquals(503, ((HttpStatusException) download.getFailure()).getStatus());
+	}
+
+	@Test(timeout = 10_000)
+	public void whenClientError_thenItIsNotRetried() throws IOException {
+		server.reject(Integer.MAX_VALUE, 404);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.retry(5, 10_000, 10_000)
+				.build();
+		download.start();
+
+		assertFalse(download.isComplete());
+		assertEquals(404, ((HttpStatusException) download.getFailure()).getStatus());
+	}
+}
@@ -0,0 +1,42 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class RetryPolicyTest {
+
+	@Test
+	public void whenAttemptsGrow_thenDelayDoublesUpToMax() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+		for (int attempt = 0; attempt < 10; attempt++) {
+			long expected = TimeUnit.MILLISECONDS.toNanos(Math.min(1000, 100L << attempt));
+			long delay = policy.delayNanos(attempt);
+			assertTrue(delay >= expected / 2);
+			assertTrue(delay <= expected);
+		}
+	}
+
+	@Test
+	public void whenConnectionErrorOrTransientStatus_thenRetriedUntilUsedUp() {
+		RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+		assertTrue(policy.shouldRetry(new EOFException(), 0));
+		assertTrue(policy.shouldRetry(new HttpStatusException(503, ""), 1));
+		assertTrue(policy.shouldRetry(new HttpStatusException(429, ""), 1));
+		assertFalse(policy.shouldRetry(new EOFException(), 2));
+	}
+
+	@Test
+	public void whenClientError_thenNotRetried() {
+		RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+		assertFalse(policy.shouldRetry(new HttpStatusException(404, ""), 0));
+		assertFalse(policy.shouldRetry(new HttpStatusException(416, ""), 0));
+	}
+}
@@ -0,0 +1,57 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author nabil
+ */
+public class SegmentSchedulerTest {
+
+	@Test
+	public void whenSegmentsPending_thenNextReturnsThemInOrderSkippingComplete() {
+		Segment first = new Segment(0, 99);
+		Segment done = new Segment(100, 199, 200);
+		Segment last = new Segment(200, 299);
+		SegmentScheduler scheduler = new SegmentScheduler(Arrays.asList(first, done, last), 10);
+
+		assertSame(first, scheduler.next(null));
+		assertSame(last, scheduler.next(null));
+	}
+
+	@Test
+	public void whenNothingPending_thenLargestActiveSegmentIsSplitInHalf() {
+		Segment small = new Segment(0, 99);
+		Segment large = new Segment(100, 499);
+		SegmentScheduler scheduler = new SegmentScheduler(Arrays.asList(small, large), 10);
+		scheduler.next(null);
+		scheduler.next(null);
+
+		Segment tail = scheduler.next(null);
+		assertEquals(300L, tail.getBegin());
+		assertEquals(499L, tail.getEnd());
+		assertEquals(299L, large.getEnd());
+		assertEquals(3, scheduler.getSegments().size());
+	}
+
+	@Test
+	public void whenRemainingBelowTwiceMinSplit_thenNextReturnsNull() {
+		Segment segment = new Segment(0, 99, 90);
+		SegmentScheduler scheduler = new SegmentScheduler(Arrays.asList(segment), 10);
+		scheduler.next(null);
+
+		assertNull(scheduler.next(null));
+	}
+
+	@Test
+	public void whenAllSegmentsAdvancedPastEnd_thenComplete() {
+		Segment segment = new Segment(0, 99);
+		SegmentScheduler scheduler = new SegmentScheduler(Arrays.asList(segment), 10);
+		assertFalse(scheduler.isComplete());
+		segment.advance(100);
+		assertTrue(scheduler.isComplete());
+	}
+}
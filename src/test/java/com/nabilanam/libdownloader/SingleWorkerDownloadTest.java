@@ -7,6 +7,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import static org.junit.Assert.*;
@@ -78,4 +80,42 @@ public class SingleWorkerDownloadTest {
 	public void whenContentLengthIsMOneAndBeginGreaterThanContentLength_thenReturnTrue() {
 		assertFalse(download.isSingleWorkerFileAlreadyDownloaded(1L, -1L));
 	}
+
+	@Test
+	public void whenDownloadedWithSmallBufferAndCheckpoints_thenFileMatchesContent() throws IOException {
+		Path directory = Paths.get("target", "single");
+		try (TestServer server = new TestServer(100_003)) {
+			Download single = new Download.Builder(server.url("single.bin"))
+					.directory(directory)
+					.bufferSize(4096)
+					.checkpoint(10_000, 1)
+					.build();
+			single.start();
+
+			assertTrue(single.isComplete());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(single.getFilePath()));
+		} finally {
+			Files.deleteIfExists(directory.resolve("single.bin"));
+		}
+	}
+
+	@Test
+	public void whenRemoteChangedBeforeResume_thenFileIsWrittenFromStart() throws IOException {
+		Path directory = Paths.get("target", "single");
+		Files.createDirectories(directory);
+		Path file = directory.resolve("changed.bin");
+		try (TestServer server = new TestServer(50_000)) {
+			Files.write(file, new byte[20_000]);
+			Download single = new Download.Builder(server.url("changed.bin"))
+					.directory(directory)
+					.build();
+			server.setETag("\"v2\"");
+			single.start();
+
+			assertTrue(single.isComplete());
+			assertArrayEquals(server.getContent(), Files.readAllBytes(file));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
 }
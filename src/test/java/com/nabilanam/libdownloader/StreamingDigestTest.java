@@ -0,0 +1,60 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author nabil
+ */
+public class StreamingDigestTest {
+
+	@Test
+	public void whenUpdatedInPieces_thenDigestIsOfTheWhole() {
+		StreamingDigest digest = new StreamingDigest("md5");
+		digest.update(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.US_ASCII)));
+		digest.update(ByteBuffer.wrap("world".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(11, digest.getPosition());
+		assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", digest.finish());
+	}
+
+	@Test
+	public void whenRangesArriveOutOfOrder_thenOnlyThoseReachingThePrefixAreDigested() {
+		StreamingDigest digest = new StreamingDigest("MD5");
+		digest.update(6, ByteBuffer.wrap("world".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(0, digest.getPosition());
+		digest.update(0, ByteBuffer.wrap("hell".getBytes(StandardCharsets.US_ASCII)));
+		// overlaps the digested prefix, only the rest is taken
+		ByteBuffer overlap = ByteBuffer.wrap("llo ".getBytes(StandardCharsets.US_ASCII));
+		digest.update(2, overlap);
+		assertEquals(0, overlap.position());
+		digest.update(6, ByteBuffer.wrap("world".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(11, digest.getPosition());
+		assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", digest.finish());
+	}
+
+	@Test
+	public void whenDigestHeaderListsAlgorithm_thenItIsDecodedToHex() {
+		String header = "md5=XrY7u+Ae7tCTyyK7j1rNww==, sha-256=:uU0nuZNNPgilLlLX2n2r+sSE7+N6U4DukIj3rOLvzek=:";
+		assertEquals("b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9",
+				StreamingDigest.fromHeaders("SHA-256", header, null));
+		assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", StreamingDigest.fromHeaders("MD5", header, null));
+		assertNull(StreamingDigest.fromHeaders("CRC32", header, null));
+	}
+
+	@Test
+	public void whenContentMd5_thenItIsExpectedForMd5Only() {
+		assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3",
+				StreamingDigest.fromHeaders("MD5", null, "XrY7u+Ae7tCTyyK7j1rNww=="));
+		assertNull(StreamingDigest.fromHeaders("SHA-256", null, "XrY7u+Ae7tCTyyK7j1rNww=="));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void whenAlgorithmUnknown_thenIllegalArgument() {
+		new StreamingDigest("SHA-9");
+	}
+}
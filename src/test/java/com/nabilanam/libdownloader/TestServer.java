@@ -0,0 +1,265 @@
+package com.nabilanam.libdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process http server serving a random body with range support.
+ *
+ * @author nabil
+ */
+class TestServer implements AutoCloseable {
+
+	private final HttpServer server;
+	private final byte[] content;
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private volatile String eTag = "\"v1\"";
+	private volatile boolean headAllowed = true;
+	private volatile boolean conditional = true;
+	private final AtomicInteger rejections = new AtomicInteger();
+	private volatile int rejectStatus = 429;
+	private final AtomicInteger drops = new AtomicInteger();
+	private volatile int dropAfter;
+	private final AtomicInteger slows = new AtomicInteger();
+	private volatile int slowAfter;
+	private volatile long slowIntervalMillis;
+	private volatile String digest;
+	private volatile String encoding;
+
+	TestServer(int length) throws IOException {
+		this(random(length));
+	}
+
+	/**
+	 * Serves the given body, for compressible content.
+	 */
+	TestServer(byte[] content) throws IOException {
+		this.content = content;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	/**
+	 * Pretends a new version of the content is served, ranges with an old If-Range get the whole body.
+	 * Requests with If-None-Match of the current one get 304 Not Modified.
+	 */
+	void setETag(String eTag) {
+		this.eTag = eTag;
+	}
+
+	/**
+	 * Ignores If-None-Match and answers 200 like servers without conditional requests do.
+	 */
+	void setConditional(boolean conditional) {
+		this.conditional = conditional;
+	}
+
+	/**
+	 * Answers HEAD with 405 like some servers do.
+	 */
+	void setHeadAllowed(boolean headAllowed) {
+		this.headAllowed = headAllowed;
+	}
+
+	/**
+	 * Sends a Digest header like {@code sha-256=...} with every response.
+	 */
+	void setDigest(String digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * Whole body GET requests accepting the coding, gzip or deflate, are answered with the encoded body.
+	 */
+	void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * The next ranged requests are answered with 429 Too Many Requests.
+	 */
+	void reject(int requests) {
+		reject(requests, 429);
+	}
+
+	/**
+	 * The next ranged requests are answered with the status and no body.
+	 */
+	void reject(int requests, int status) {
+		rejectStatus = status;
+		rejections.set(requests);
+	}
+
+	/**
+	 * The next GET requests send the given number of body bytes at full speed and then one byte per
+	 * interval, a long interval stalls them completely.
+	 */
+	void slow(int requests, int afterBytes, long intervalMillis) {
+		slowAfter = afterBytes;
+		slowIntervalMillis = intervalMillis;
+		slows.set(requests);
+	}
+
+	/**
+	 * The connection of the next GET requests is closed after the given number of body bytes.
+	 * Requests for fewer bytes are served in full.
+	 */
+	void drop(int requests, int afterBytes) {
+		dropAfter = afterBytes;
+		drops.set(requests);
+	}
+
+	/**
+	 * @return "METHOD range port" of every request, port being the client's
+	 */
+	List<String> getRequests() {
+		return requests;
+	}
+
+	byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @param name file name, names starting with "missing" are answered with 404 Not Found
+	 */
+	URL url(String name) throws MalformedURLException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long begin = 0;
+		long end = content.length - 1;
+		int status = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		requests.add(exchange.getRequestMethod() + " " + range + " " + exchange.getRemoteAddress().getPort());
+		if (!headAllowed && "HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(405, -1);
+			exchange.close();
+			return;
+		}
+		if (exchange.getRequestURI().getPath().startsWith("/missing")) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		if (!Util.isNull(range) && rejections.getAndDecrement() > 0) {
+			exchange.sendResponseHeaders(rejectStatus, -1);
+			exchange.close();
+			return;
+		}
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		if (!Util.isNull(ifRange) && !ifRange.equals(eTag))
+			range = null;
+		exchange.getResponseHeaders().set("ETag", eTag);
+		if (conditional && eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		if (!Util.isNull(digest))
+			exchange.getResponseHeaders().set("Digest", digest);
+		if (!Util.isNull(range) && range.startsWith("bytes=")) {
+			String[] bounds = range.substring(6).split("-", -1);
+			begin = Long.parseLong(bounds[0]);
+			if (!bounds[1].isEmpty())
+				end = Math.min(end, Long.parseLong(bounds[1]));
+			if (begin > end) {
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+				return;
+			}
+			status = 206;
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + begin + "-" + end + "/" + content.length);
+		}
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		long length = end - begin + 1;
+		boolean head = "HEAD".equals(exchange.getRequestMethod());
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (!head && status == 200 && !Util.isNull(encoding) && !Util.isNull(accepted) && accepted.contains(encoding)) {
+			sendEncoded(exchange);
+			return;
+		}
+		if (head)
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+		exchange.sendResponseHeaders(status, head ? -1 : length);
+		if (!head) {
+			if (length > dropAfter && drops.getAndDecrement() > 0) {
+				OutputStream out = exchange.getResponseBody();
+				out.write(content, (int) begin, dropAfter);
+				out.flush();
+				// the server closes the connection of a handler that throws
+				throw new IOException("Dropped after " + dropAfter + " bytes");
+			}
+			if (length > slowAfter && slows.getAndDecrement() > 0) {
+				trickle(exchange, begin, length);
+				return;
+			}
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(content, (int) begin, (int) length);
+			} catch (IOException e) {
+				// client went away
+			}
+		}
+		exchange.close();
+	}
+
+	private void sendEncoded(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+			out.write(content);
+		}
+		exchange.getResponseHeaders().set("Content-Encoding", encoding);
+		exchange.sendResponseHeaders(200, bytes.size());
+		try (OutputStream out = exchange.getResponseBody()) {
+			bytes.writeTo(out);
+		} catch (IOException e) {
+			// client went away
+		}
+		exchange.close();
+	}
+
+	private static byte[] random(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+
+	private void trickle(HttpExchange exchange, long begin, long length) {
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, (int) begin, slowAfter);
+			out.flush();
+			for (int i = slowAfter; i < length; i++) {
+				Thread.sleep(slowIntervalMillis);
+				out.write(content[(int) begin + i]);
+				out.flush();
+			}
+		} catch (IOException | InterruptedException e) {
+			// client gave up or server stopped
+		}
+		exchange.close();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+}
@@ -0,0 +1,69 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Tests run from the class directory, so they get the Java 8 version of Threads even on Java 21.
+ *
+ * @author nabil
+ */
+public class ThreadsTest {
+
+	private final Path directory = Paths.get("target", "threads");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(256 * 1024 + 5);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenVirtualThreadsAreAsked_thenDownloadCompletes() throws Exception {
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.virtualThreads(true)
+				.build();
+		DownloadResult result = download.startAsync(Runnable::run).get();
+
+		assertEquals(Threads.isVirtualSupported(), download.isVirtualThreads());
+		assertTrue(result.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test
+	public void whenVirtualThreadsAreNotSupported_thenPlatformThreadsAreUsed() throws Exception {
+		assumeFalse(Threads.isVirtualSupported());
+		ExecutorService executor = Threads.newExecutor(true);
+		try {
+			assertEquals(Thread.class, executor.submit(() -> Thread.currentThread().getClass()).get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(Thread.class, Threads.newThread(true, () -> {
+		}).getClass());
+	}
+}
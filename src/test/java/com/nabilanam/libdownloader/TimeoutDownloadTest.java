@@ -0,0 +1,102 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author nabil
+ */
+public class TimeoutDownloadTest {
+
+	private final Path directory = Paths.get("target", "timeout");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(1024 * 1024 + 7);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSingleConnectionGoesSilent_thenReadTimesOutAndResumes() throws IOException {
+		server.slow(1, 100 * 1024, 60_000);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.timeouts(1000, 300)
+				.retry(3, 10, 20)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenSegmentTrickles_thenStallIsDetectedAndRangeRequestedAgain() throws IOException {
+		server.slow(1, 16 * 1024, 50);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.retry(3, 10, 20)
+				.stallDetection(64 * 1024, 500)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNonBlockingConnectionGoesSilent_thenReadTimesOut() throws IOException {
+		server.slow(1, 16 * 1024, 60_000);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.nonBlocking(true)
+				.timeouts(1000, 300)
+				.retry(3, 10, 20)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+
+	@Test(timeout = 10_000)
+	public void whenNonBlockingConnectionTrickles_thenStallIsDetected() throws IOException {
+		server.slow(1, 16 * 1024, 50);
+		Download download = new Download.Builder(server.url("book.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.nonBlocking(true)
+				.retry(3, 10, 20)
+				.stallDetection(64 * 1024, 500)
+				.build();
+		download.start();
+
+		assertTrue(download.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(download.getFilePath()));
+	}
+}
@@ -0,0 +1,81 @@
+package com.nabilanam.libdownloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author nabil
+ */
+public class TransportTest {
+
+	private final Path directory = Paths.get("target", "transport");
+	private TestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new TestServer(512 * 1024 + 11);
+		Files.createDirectories(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		Files.walk(directory)
+				.map(Path::toFile)
+				.sorted((a, b) -> b.compareTo(a))
+				.forEach(File::delete);
+	}
+
+	@Test
+	public void whenJavaIsNewEnough_thenHttpClientTransportIsUsed() {
+		assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+		assertFalse(Transport.httpClient() instanceof UrlConnectionTransport);
+	}
+
+	@Test
+	public void whenHttpClientTransportShared_thenSegmentedDownloadsMatchContent() throws IOException {
+		Transport transport = Transport.httpClient();
+		Download preallocated = new Download.Builder(server.url("preallocated.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.preallocate(true)
+				.segmentSize(64 * 1024)
+				.transport(transport)
+				.build();
+		Download parts = new Download.Builder(server.url("parts.bin"))
+				.directory(directory)
+				.threadCount(4)
+				.transport(transport)
+				.build();
+		preallocated.start();
+		parts.start();
+
+		assertTrue(preallocated.isComplete());
+		assertTrue(parts.isComplete());
+		assertArrayEquals(server.getContent(), Files.readAllBytes(preallocated.getFilePath()));
+		assertArrayEquals(server.getContent(), Files.readAllBytes(parts.getFilePath()));
+	}
+
+	@Test
+	public void whenHttpClientTransportProbes_thenInfoMatchesServer() throws IOException {
+		HttpInfo info = new HttpInfo(Transport.httpClient(), server.url("probe.bin"), "agent");
+
+		assertTrue(info.isPartial());
+		assertEquals(server.getContent().length, info.getContentLength());
+		assertEquals("\"v1\"", info.getETag());
+		assertEquals("probe.bin", info.getName());
+	}
+}
@@ -8,6 +8,7 @@ import java.net.URL;
 import java.nio.file.Paths;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -54,4 +55,13 @@ public class WorkerTest {
 		assertTrue(worker.isDownloadable(200));
 		assertTrue(worker.isDownloadable(206));
 	}
+
+	@Test
+	public void whenTooManyRequestsOrUnavailable_thenIsOverloaded() {
+		Worker worker = new Worker.Builder(url, Paths.get(""))
+				.build();
+		assertTrue(worker.isOverloaded(429));
+		assertTrue(worker.isOverloaded(503));
+		assertFalse(worker.isOverloaded(206));
+	}
 }